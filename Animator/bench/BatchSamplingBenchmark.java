@@ -0,0 +1,118 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import animator.model.AnimationModel;
+import animator.model.FrameBuffer;
+import animator.model.IAnimationModel;
+import animator.model.IKeyFrame;
+import animator.model.IShape;
+import animator.model.PlaybackCursor;
+import animator.model.Rectangle;
+import animator.util.AnimationReader;
+
+/**
+ * A benchmark of sampling every tick of an animation in three ways, printing the time each takes
+ * to play the whole animation once. The first finds the segment of each shape by binary search
+ * and calls {@link IKeyFrame#getState}, the scalar path that divides in floating point at every
+ * sample. The second is {@link IAnimationModel#sampleInto}, which samples the compiled slopes of
+ * each segment one shape at a time. The third plays a {@link PlaybackCursor}, which keeps the
+ * current segments of the visible shapes in columns and samples each attribute of all of them in
+ * one loop. Each is timed as the best of several passes, after a few passes to warm up. It is not
+ * a test, and is kept out of the test directory so that no test runner picks it up. Run it with
+ * the model classes on the class path, from the directory holding test/.
+ */
+public class BatchSamplingBenchmark {
+
+  private static final int WARMUP = 5;
+  private static final int PASSES = 25;
+
+  // keeps the results, so that the work producing them is not optimized away
+  private static volatile long sink;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the animation files to play, or none for big-bang-big-crunch and toh-12.
+   * @throws IOException if a file cannot be read.
+   */
+  public static void main(String[] args) throws IOException {
+    String[] files = args.length > 0 ? args
+            : new String[] {"test/big-bang-big-crunch.txt", "test/toh-12.txt"};
+    System.out.printf("%-30s  %11s  %13s  %9s%n", "file", "getState ms", "sampleInto ms",
+            "cursor ms");
+    for (String file : files) {
+      IAnimationModel model;
+      try (Reader in = new FileReader(file)) {
+        model = AnimationReader.parseFile(in, new AnimationModel.Builder());
+      }
+      int end = model.getFinalTick();
+      List<IKeyFrame[]> frames = new ArrayList<>();
+      for (String id : model.getIds()) {
+        frames.add(model.getKeyFrames(id).toArray(new IKeyFrame[0]));
+      }
+      FrameBuffer frame = new FrameBuffer();
+      PlaybackCursor cursor = model.freeze().createCursor();
+
+      long scalar = Long.MAX_VALUE;
+      long compiled = Long.MAX_VALUE;
+      long batch = Long.MAX_VALUE;
+      long check = 0;
+      for (int pass = 0; pass < WARMUP + PASSES; pass++) {
+        long start = System.nanoTime();
+        for (int tick = 0; tick <= end; tick++) {
+          check += getStates(frames, tick);
+        }
+        long first = System.nanoTime();
+        for (int tick = 0; tick <= end; tick++) {
+          model.sampleInto(tick, frame);
+          check += frame.size();
+        }
+        long second = System.nanoTime();
+        // a restarted cursor is before the first tick
+        cursor.restart();
+        for (int tick = 0; tick <= end; tick++) {
+          cursor.advance();
+          cursor.sampleInto(frame);
+          check += frame.size();
+        }
+        long third = System.nanoTime();
+        if (pass >= WARMUP) {
+          scalar = Math.min(scalar, first - start);
+          compiled = Math.min(compiled, second - first);
+          batch = Math.min(batch, third - second);
+        }
+      }
+      sink += check;
+      System.out.printf("%-30s  %11d  %13d  %9d%n", file, scalar / 1000000, compiled / 1000000,
+              batch / 1000000);
+    }
+  }
+
+  // finds the state of every shape at a tick from the KeyFrames on either side of it
+  private static long getStates(List<IKeyFrame[]> frames, int tick) {
+    long found = 0;
+    IShape shape = new Rectangle();
+    for (IKeyFrame[] shapeFrames : frames) {
+      int low = 0;
+      int high = shapeFrames.length - 1;
+      if (high < 1 || tick < shapeFrames[0].getTick() || tick > shapeFrames[high].getTick()) {
+        continue;
+      }
+      // the last KeyFrame whose tick is not after the given one, short of the last KeyFrame
+      while (high - low > 1) {
+        int mid = (low + high) >>> 1;
+        if (shapeFrames[mid].getTick() <= tick) {
+          low = mid;
+        }
+        else {
+          high = mid;
+        }
+      }
+      found += shapeFrames[low].getState(tick, shapeFrames[low + 1], shape).getX();
+    }
+    return found;
+  }
+}
@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import animator.model.ConcurrentAnimationModel;
+import animator.model.FrameBuffer;
+import animator.model.KeyFrame;
+import animator.model.Rectangle;
+
+/**
+ * A benchmark of a concurrent model shared by several threads. A number of reader threads sample
+ * frames from the model while one writer thread keeps adding and deleting KeyFrames, and the
+ * number of frames and edits made each second is printed for each number of readers. It is not a
+ * test, and is kept out of the test directory so that no test runner picks it up. Run it with the
+ * model classes on the class path.
+ */
+public class ConcurrentModelBenchmark {
+
+  private static final int SHAPES = 2000;
+  private static final int FRAMES = 500;
+  private static final long MILLIS = 2000;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args ignored.
+   * @throws InterruptedException if the benchmark is interrupted.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    ConcurrentAnimationModel model = new ConcurrentAnimationModel();
+    model.setScreenSize(0, 0, 1000, 1000);
+    for (int i = 0; i < SHAPES; i++) {
+      model.addShape("s" + i, new Rectangle());
+      model.addKeyFrame("s" + i, new KeyFrame(0, i % 500, 0, 10, 10, 0, 0, 0));
+      model.addKeyFrame("s" + i, new KeyFrame(FRAMES, 0, i % 500, 10, 10, 255, 0, 0));
+    }
+    System.out.println("readers  writer  frames/s  edits/s");
+    for (int readers = 1; readers <= 8; readers *= 2) {
+      run(model, readers, false);
+      run(model, readers, true);
+    }
+  }
+
+  private static void run(ConcurrentAnimationModel model, int readerCount, boolean writing)
+          throws InterruptedException {
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicLong frames = new AtomicLong();
+    AtomicLong edits = new AtomicLong();
+    List<Thread> threads = new ArrayList<>();
+    for (int r = 0; r < readerCount; r++) {
+      int offset = r * 37;
+      threads.add(new Thread(() -> {
+        FrameBuffer frame = new FrameBuffer();
+        long count = 0;
+        for (int tick = offset; !done.get(); tick = (tick + 1) % FRAMES) {
+          model.sampleInto(tick, frame);
+          count++;
+        }
+        frames.addAndGet(count);
+      }));
+    }
+    if (writing) {
+      threads.add(new Thread(() -> {
+        long count = 0;
+        for (int edit = 0; !done.get(); edit++) {
+          String id = "s" + (edit % SHAPES);
+          model.addKeyFrame(id, new KeyFrame(FRAMES / 2, edit % 500, 0, 10, 10, 0, 0, 0));
+          model.deleteKeyFrame(id, FRAMES / 2);
+          count += 2;
+        }
+        edits.addAndGet(count);
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    Thread.sleep(MILLIS);
+    done.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    System.out.printf("%7d  %6s  %8d  %7d%n", readerCount, writing ? "yes" : "no",
+            frames.get() * 1000 / MILLIS, edits.get() * 1000 / MILLIS);
+  }
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import animator.model.AnimationModel;
+import animator.model.IKeyFrame;
+import animator.model.IShape;
+import animator.model.KeyFrame;
+import animator.model.Rectangle;
+
+/**
+ * A benchmark of how the cost of finding the state of every shape at a tick grows with the number
+ * of KeyFrames of each shape. For each number of KeyFrames, a model of a few shapes is sampled at
+ * the same random ticks in two ways, and the time per frame of each is printed. The first walks
+ * every KeyFrame of every shape to find the segment holding the tick, as getShapesAtTick did
+ * before each shape kept its ticks sorted, and the second is getShapesAtTick itself, which finds
+ * the segment by binary search. Each is timed as the best of several passes, after a pass to warm
+ * up. It is not a test, and is kept out of the test directory so that no test runner picks it
+ * up. Run it with the model classes on the class path.
+ */
+public class KeyFrameLookupBenchmark {
+
+  private static final int SHAPES = 10;
+  private static final int TICKS = 2000;
+  private static final int PASSES = 5;
+  private static final int[] KEYFRAMES = {101, 1001, 10001, 50001};
+
+  // keeps the results, so that the work producing them is not optimized away
+  private static volatile long sink;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args ignored.
+   */
+  public static void main(String[] args) {
+    System.out.println("keyframes/shape  walk us/frame  binary search us/frame");
+    for (int keyFrames : KEYFRAMES) {
+      AnimationModel model = new AnimationModel();
+      model.setScreenSize(0, 0, 1000, 1000);
+      List<IKeyFrame[]> frames = new ArrayList<>();
+      for (int s = 0; s < SHAPES; s++) {
+        model.addShape("s" + s, new Rectangle());
+        for (int k = 0; k < keyFrames; k++) {
+          model.addKeyFrame("s" + s, new KeyFrame(10 * k, (k * 7 + s) % 500, (k * 3) % 500,
+                  10 + k % 5, 10, k % 256, 0, 0));
+        }
+        frames.add(model.getKeyFrames("s" + s).toArray(new IKeyFrame[0]));
+      }
+      int[] ticks = new int[TICKS];
+      Random random = new Random(keyFrames);
+      for (int i = 0; i < TICKS; i++) {
+        ticks[i] = random.nextInt(10 * (keyFrames - 1) + 1);
+      }
+
+      long walk = Long.MAX_VALUE;
+      long search = Long.MAX_VALUE;
+      long check = 0;
+      for (int pass = 0; pass <= PASSES; pass++) {
+        long start = System.nanoTime();
+        for (int tick : ticks) {
+          check += walk(frames, tick);
+        }
+        long middle = System.nanoTime();
+        for (int tick : ticks) {
+          check += model.getShapesAtTick(tick).size();
+        }
+        long end = System.nanoTime();
+        // the first pass only warms up
+        if (pass > 0) {
+          walk = Math.min(walk, middle - start);
+          search = Math.min(search, end - middle);
+        }
+      }
+      System.out.printf("%15d  %13d  %22d%n", keyFrames, walk / 1000 / TICKS,
+              search / 1000 / TICKS);
+      sink += check;
+    }
+  }
+
+  // finds the state of every shape at a tick by walking all of its KeyFrames
+  private static int walk(List<IKeyFrame[]> frames, int tick) {
+    int found = 0;
+    IShape shape = new Rectangle();
+    for (IKeyFrame[] shapeFrames : frames) {
+      for (int i = 0; i + 1 < shapeFrames.length; i++) {
+        if (shapeFrames[i].getTick() <= tick && tick <= shapeFrames[i + 1].getTick()) {
+          found += shapeFrames[i].getState(tick, shapeFrames[i + 1], shape).getX();
+        }
+      }
+    }
+    return found;
+  }
+}
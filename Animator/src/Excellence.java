@@ -10,6 +10,8 @@ import javax.swing.JOptionPane;
 import animator.controller.IAnimationController;
 import animator.model.AnimationModel;
 import animator.model.IAnimationModel;
+import animator.model.IViewOnlyAnimationModel;
+import animator.model.MemoryReport;
 import animator.util.AnimationBuilder;
 import animator.util.AnimationReader;
 import animator.util.AnimatorViewFactory;
@@ -31,12 +33,18 @@ public class Excellence {
     String outputFileName = null;
     String inputFileName = null;
     int speed = 1;
+    boolean compact = false;
+    int tolerance = -1;
+    boolean memory = false;
 
     for (int i = 0; i < args.length; i++) {
       inputFileName = checkForSpecifier(args, inputFileName, i, "-in");
       viewType = checkForSpecifier(args, viewType, i, "-view");
       outputFileName = checkForSpecifier(args, outputFileName, i, "-out");
       speed = checkSpeedSpecifier(args, speed, i);
+      compact = compact || args[i].equals("-compact");
+      tolerance = checkSimplifySpecifier(args, tolerance, i);
+      memory = memory || args[i].equals("-memory");
     }
 
     if (viewType == null || inputFileName == null) {
@@ -46,9 +54,29 @@ public class Excellence {
     AnimationBuilder builder = new AnimationModel.Builder();
     AnimationReader reader = new AnimationReader();
     IAnimationModel model = tryFileRead(inputFileName, builder, reader);
+    if (compact) {
+      // reported on the error stream so that it never mixes with output written to the console
+      System.err.println("Removed " + model.compactKeyFrames() + " redundant KeyFrames.");
+    }
+    if (tolerance >= 0) {
+      System.err.println("Removed " + model.simplifyKeyFrames(tolerance, tolerance)
+              + " KeyFrames within a tolerance of " + tolerance + ".");
+    }
+    if (memory) {
+      MemoryReport report = model.getMemoryReport();
+      System.err.println(report.getKeyFrames() + " KeyFrames and " + report.getCommands()
+              + " commands take " + report.getBytes() + " bytes.");
+      System.err.println(report.getSegments() + " segments share " + report.getSharedSegments()
+              + " compiled segments.");
+      System.err.println(report.getBytesSaved() + " bytes saved.");
+      System.err.println(report.getUnusedSegments() + " compiled segments unused.");
+    }
     AnimatorViewFactory factory = new AnimatorViewFactory();
     checkValidView(viewType, model, factory);
-    IAnimationView view = factory.create(viewType, model);
+    // only the editor changes the model, so every other view plays back a compiled snapshot
+    IViewOnlyAnimationModel viewModel = viewType.equalsIgnoreCase("edit") ? model
+            : model.freeze();
+    IAnimationView view = factory.create(viewType, viewModel);
     IAnimationController controller = view.getController(model, speed);
     try {
       controller.play();
@@ -106,6 +134,20 @@ public class Excellence {
     return speed;
   }
 
+  private static int checkSimplifySpecifier(String[] args, int tolerance, int i) {
+    if (args[i].equals("-simplify")) {
+      try {
+        tolerance = Integer.parseInt(retrieveNextArg(args, i));
+      } catch (NumberFormatException e) {
+        showError("Invalid simplify argument.");
+      }
+      if (tolerance < 0) {
+        showError("Invalid simplify argument.");
+      }
+    }
+    return tolerance;
+  }
+
   private static String checkForSpecifier(String[] args,
                                           String inputFileName, int i, String specifier) {
     if (args[i].equals(specifier)) {
@@ -127,7 +169,8 @@ public class Excellence {
 
   private static String retrieveNextArg(String[] args, int i) {
     try {
-      List<String> specifiers = Arrays.asList("-in", "-out", "-view", "-speed");
+      List<String> specifiers = Arrays.asList("-in", "-out", "-view", "-speed",
+              "-compact", "-simplify", "-memory");
       if (specifiers.contains(args[i + 1])) {
         showError("Invalid input.");
         return null;
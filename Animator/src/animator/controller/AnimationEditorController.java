@@ -91,6 +91,18 @@ public class AnimationEditorController implements IAnimationEditorController {
     this.isLooping = !this.isLooping;
   }
 
+  @Override
+  public void undo() {
+    this.model.undo();
+    this.view.refresh(this.tick);
+  }
+
+  @Override
+  public void redo() {
+    this.model.redo();
+    this.view.refresh(this.tick);
+  }
+
   @Override
   public void play() {
     if (this.hasStarted) {
@@ -171,6 +183,12 @@ public class AnimationEditorController implements IAnimationEditorController {
       case "deleteKeyFrame":
         deleteKeyFrame();
         break;
+      case "undo":
+        undo();
+        break;
+      case "redo":
+        redo();
+        break;
       default:
         throw new IllegalArgumentException();
     }
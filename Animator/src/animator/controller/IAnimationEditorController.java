@@ -31,6 +31,20 @@ public interface IAnimationEditorController extends IAnimationController {
    */
   void toggleLooping();
 
+  /**
+   * Undoes the last edit made to the animation.
+   *
+   * @throws IllegalStateException if there is nothing to undo.
+   */
+  void undo();
+
+  /**
+   * Redoes the last edit that was undone.
+   *
+   * @throws IllegalStateException if there is nothing to redo.
+   */
+  void redo();
+
   /**
    * Handles an arbitrary mouse click at a given point.
    *
@@ -1,6 +1,7 @@
 package animator.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import animator.util.AnimationBuilder;
@@ -9,207 +10,576 @@ import animator.util.AnimationBuilder;
  * A class that represents a mutable animation, keeping track of shapes and how they are
  * commanded to move, change size, and/or change color. Shapes and commands can be added using
  * methods in this class. This interface extends its read-only counterpart in order to add
- * functionality to the existing model class.
+ * functionality to the existing model class. Every edit is recorded so that it can be undone,
+ * apart from the shapes, motions and KeyFrames loaded by a {@link Builder}.
  */
 public class AnimationModel extends ViewOnlyAnimationModel implements IAnimationModel {
 
+  // the smallest pool that is checked for entries no shape uses
+  private static final int POOL_CHECK = 1024;
+  // a command holds sixteen ints and a boolean behind its header, padded to 80 bytes, and its
+  // list holds a reference to it
+  private static final int COMMAND_BYTES = 84;
+
+  private final EditHistory history;
+  private SegmentPool pool;
+  // the size the pool has to reach before it is checked again
+  private int poolCheck;
+
   /**
    * No parameter constructor that instantiates the lists to null and states that the screen has
    * not been set yet.
    */
   public AnimationModel() {
     super();
+    this.history = new EditHistory();
+    this.pool = new SegmentPool();
+    this.poolCheck = POOL_CHECK;
   }
 
   @Override
   public void addShape(String id, IShape shape) {
     checkAddParameters(id, shape);
-    if (shapes.containsKey(id)) {
+    if (handles.containsKey(id)) {
       throw new IllegalArgumentException("ID is already in use");
     }
     else if (shape.getX() > this.width || shape.getY() > this.height) {
       throw new IllegalArgumentException();
     }
-    shapes.put(id, shape.getCopy());
-    commands.put(id, new ArrayList<>());
-    keyframes.put(id, new ArrayList<>());
-    ids.add(id);
+    handles.put(id, names.size());
+    names.add(id);
+    shapes.add(shape.getCopy());
+    commands.add(new ArrayList<>());
+    keyframes.add(new KeyFrameTrack(this.pool));
+    publish(names.size() - 1);
+    this.history.record(new ShapeEdit(id, true));
+    fireShapeAdded(id);
   }
 
   @Override
   public void addCommand(String id, ICommand command) {
     checkAddParameters(id, command);
 
-    if (!shapes.containsKey(id)) {
+    Integer handle = handles.get(id);
+    if (handle == null) {
       throw new IllegalArgumentException("Invalid ID");
     }
 
-    if (!isValidCommand(id, command)) {
+    if (!isValidCommand(handle, command)) {
       throw new IllegalArgumentException("Invalid command addition.");
     } else {
-      commands.get(id).add(command);
-      convertToKeyFrames(id, command);
+      int rows = keyframes.get(handle).size();
+      appendCommand(handle, command, true);
+      this.history.record(new CommandEdit(id, command, keyframes.get(handle).size() - rows));
+    }
+  }
+
+  /**
+   * Appends a command to a shape, which must follow on from its last command.
+   *
+   * @param handle the handle of the shape.
+   * @param command the command.
+   * @param withKeyFrames whether the KeyFrames at the ends of the command are added as well.
+   */
+  private void appendCommand(int handle, ICommand command, boolean withKeyFrames) {
+    unshare(handle);
+    int oldEnd = getEndTime(handle);
+    commands.get(handle).add(command);
+    if (withKeyFrames) {
+      convertToKeyFrames(handle, command);
     }
+    updateFinalTick(oldEnd, command.getEndTime());
+    publish(handle);
+    fireKeyFramesChanged(names.get(handle), command.getStartTime(), command.getEndTime());
   }
 
-  private void convertToKeyFrames(String id, ICommand command) {
-    if (commands.get(id).size() == 1) {
-      keyframes.get(id).add(new KeyFrame(command.getStartTime(), command.getStartX(),
+  /**
+   * Removes the last command of a shape.
+   *
+   * @param handle the handle of the shape.
+   * @param rows the number of KeyFrames to remove from the end along with it.
+   */
+  private void dropCommand(int handle, int rows) {
+    unshare(handle);
+    int oldEnd = getEndTime(handle);
+    List<ICommand> tempCommands = commands.get(handle);
+    ICommand command = tempCommands.remove(tempCommands.size() - 1);
+    KeyFrameTrack track = keyframes.get(handle);
+    for (int i = 0; i < rows; i++) {
+      track.remove(track.size() - 1);
+    }
+    updateFinalTick(oldEnd, getEndTime(handle));
+    publish(handle);
+    fireKeyFramesChanged(names.get(handle), command.getStartTime(), command.getEndTime());
+  }
+
+  private void convertToKeyFrames(int handle, ICommand command) {
+    if (commands.get(handle).size() == 1) {
+      keyframes.get(handle).add(new KeyFrame(command.getStartTime(), command.getStartX(),
               command.getStartY(), command.getStartWidth(), command.getStartHeight(),
               command.getStartRed(), command.getStartGreen(), command.getStartBlue()));
     }
-    keyframes.get(id).add(new KeyFrame(command.getEndTime(), command.getEndX(),
+    keyframes.get(handle).add(new KeyFrame(command.getEndTime(), command.getEndX(),
             command.getEndY(), command.getEndWidth(), command.getEndHeight(),
             command.getEndRed(), command.getEndGreen(), command.getEndBlue()));
   }
 
   @Override
   public void removeShape(String id) {
-    if (!shapes.containsKey(id)) {
-      throw new IllegalArgumentException();
+    ShapeEdit edit = new ShapeEdit(id, false);
+    edit.remove();
+    this.history.record(edit);
+  }
+
+  // clears out the entries of a shape, leaving empty ones behind
+  private void detach(int handle) {
+    String id = names.get(handle);
+    updateFinalTick(getEndTime(handle), -1);
+    handles.remove(id);
+    names.set(handle, null);
+    shapes.set(handle, null);
+    commands.set(handle, null);
+    keyframes.set(handle, null);
+    removed++;
+    // the empty entries are cleared out once they are the majority, so they never build up
+    if (removed > names.size() / 2) {
+      compact();
     }
     else {
-      shapes.remove(id);
-      commands.remove(id);
-      ids.remove(id);
-      keyframes.remove(id);
+      publish(handle);
     }
+    fireShapeRemoved(id);
   }
 
   @Override
   public void removeLastCommand(String id) {
-    if (!commands.containsKey(id)) {
+    int handle = getHandle(id);
+    int commandSetSize = commands.get(handle).size();
+    if (commandSetSize == 0) {
       throw new IllegalArgumentException();
     }
-    else {
-      int commandSetSize = commands.get(id).size();
-      if (commandSetSize == 0) {
-        throw new IllegalArgumentException();
-      }
-      commands.get(id).remove(commandSetSize - 1);
-    }
+    ICommand last = commands.get(handle).get(commandSetSize - 1);
+    dropCommand(handle, 0);
+    this.history.record(new CommandEdit(id, last, -1));
   }
 
   @Override
   public void addKeyFrame(String id, IKeyFrame k) {
-    if (!ids.contains(id)) {
-      throw new IllegalArgumentException();
+    int handle = getHandle(id);
+    KeyFrameTrack track = keyframes.get(handle);
+    int first = track.lowerBound(k.getTick());
+    int last = first;
+    while (last < track.size() && track.getTick(last) == k.getTick()) {
+      last++;
     }
-    List<IKeyFrame> tempFrames = keyframes.get(id);
-    checkIfFramesEmpty(id, k, tempFrames);
-    int first = getFirstTick(tempFrames);
-    int last = getLastTick(tempFrames);
-    if (checkForFirstOrLast(id, k, first, last)) {
-      return ;
+    IKeyFrame[] replaced = new IKeyFrame[last - first];
+    for (int i = first; i < last; i++) {
+      replaced[i - first] = track.getKeyFrame(i);
     }
-    findKeyFramePosition(id, k, tempFrames, last);
+    List<ICommand> commandsBefore = commandsUnlessInStep(handle);
+    unshare(handle);
+    addKeyFrame(handle, k);
+    publish(handle);
+    IKeyFrame[] added = new IKeyFrame[Math.max(1, replaced.length)];
+    Arrays.fill(added, keyframes.get(handle).getKeyFrame(first));
+    this.history.record(new KeyFrameEdit(id, first, replaced, added, commandsBefore));
+    fireKeyFramesChanged(handle, first - 1, first + added.length, k.getTick());
   }
 
-  private boolean checkForFirstOrLast(String id, IKeyFrame k, int first, int last) {
-    if (k.getTick() < first) {
-      insertFirstKeyFrame(id, k);
-      remakeCommands(id);
-      return true;
+  private void addKeyFrame(int handle, IKeyFrame k) {
+    KeyFrameTrack track = keyframes.get(handle);
+    int first = track.lowerBound(k.getTick());
+    int last = first;
+    while (last < track.size() && track.getTick(last) == k.getTick()) {
+      track.set(last, k);
+      last++;
     }
-    else if (k.getTick() > last) {
-      keyframes.get(id).add(k);
-      remakeCommands(id);
-      return true;
+    if (last > first) {
+      remakeCommands(handle, first, last - 1, 0);
+    }
+    else {
+      track.insert(first, k);
+      remakeCommands(handle, first, first, 1);
     }
-    return false;
   }
 
-  private void findKeyFramePosition(String id, IKeyFrame k, List<IKeyFrame> tempFrames, int last) {
-    for (int i = 0; i < keyframes.get(id).size(); i++) {
-      IKeyFrame tempFrame = keyframes.get(id).get(i);
-      if (k.getTick() == tempFrame.getTick()) {
-        keyframes.get(id).set(i, k);
-        remakeCommands(id);
-        System.out.print(keyframes.get(id).size());
+  /**
+   * Regenerates the commands of a shape that touch the KeyFrames from first to last, after a
+   * KeyFrame was inserted or removed at first, or the KeyFrames from first to last were replaced.
+   * Every other command is unchanged. If the commands are not in step with the KeyFrames, as after
+   * {@link #removeLastCommand}, all of them are rebuilt instead.
+   *
+   * @param handle the handle of the shape.
+   * @param first the index of the first KeyFrame that changed.
+   * @param last the index of the last KeyFrame that changed.
+   * @param change 1 if a KeyFrame was inserted, -1 if one was removed and 0 otherwise.
+   */
+  private void remakeCommands(int handle, int first, int last, int change) {
+    int oldEnd = getEndTime(handle);
+    KeyFrameTrack track = keyframes.get(handle);
+    List<ICommand> tempCommands = commands.get(handle);
+    int lastCommand = track.size() - 2;
+    if (tempCommands.size() != Math.max(0, track.size() - change - 1)) {
+      tempCommands.clear();
+      for (int i = 0; i <= lastCommand; i++) {
+        tempCommands.add(track.getCommand(i));
       }
-      else if (k.getTick() > last) {
-        return ;
+    }
+    else {
+      if (change > 0 && lastCommand >= 0) {
+        tempCommands.add(Math.min(first, lastCommand), null);
       }
-      else if (k.getTick() > tempFrame.getTick()
-              && k.getTick() < keyframes.get(id).get(i + 1).getTick()) {
-        insertNewKeyFrame(id, k, tempFrames, i);
-        return ;
+      else if (change < 0 && tempCommands.size() > 0) {
+        tempCommands.remove(Math.min(first, tempCommands.size() - 1));
+      }
+      for (int i = Math.max(0, first - 1); i <= Math.min(last, lastCommand); i++) {
+        tempCommands.set(i, track.getCommand(i));
       }
     }
+    updateFinalTick(oldEnd, getEndTime(handle));
   }
 
-  private void checkIfFramesEmpty(String id, IKeyFrame k, List<IKeyFrame> tempFrames) {
-    if (tempFrames.size() == 0) {
-      keyframes.get(id).add(k);
-      remakeCommands(id);
+  @Override
+  public void deleteKeyFrame(String id, int tick) {
+    int handle = getHandle(id);
+    int index = this.keyframes.get(handle).indexOf(tick);
+    if (index < 0) {
+      throw new IllegalArgumentException("No KeyFrame at given tick " + tick);
     }
+    deleteKeyFrame(handle, index);
   }
 
-  private void insertFirstKeyFrame(String id, IKeyFrame k) {
-    List<IKeyFrame> temp = new ArrayList<>();
-    temp.add(k);
-    temp.addAll(keyframes.get(id));
-    keyframes.get(id).removeAll(keyframes.get(id));
-    keyframes.get(id).addAll(temp);
-    remakeCommands(id);
-    return ;
+  private void deleteKeyFrame(int handle, int index) {
+    IKeyFrame[] removedFrame = {this.keyframes.get(handle).getKeyFrame(index)};
+    List<ICommand> commandsBefore = commandsUnlessInStep(handle);
+    unshare(handle);
+    keyframes.get(handle).remove(index);
+    remakeCommands(handle, index, index, -1);
+    publish(handle);
+    this.history.record(new KeyFrameEdit(names.get(handle), index, removedFrame,
+            new IKeyFrame[0], commandsBefore));
+    fireKeyFramesChanged(handle, index - 1, index, removedFrame[0].getTick());
   }
 
-  private void insertNewKeyFrame(String id, IKeyFrame k, List<IKeyFrame> tempFrames, int i) {
-    List<IKeyFrame> newFrames = new ArrayList<>();
-    newFrames.addAll(keyframes.get(id).subList(0, i + 1));
-    newFrames.add(k);
-    newFrames.addAll(keyframes.get(id).subList(i + 1, keyframes.get(id).size()));
-    keyframes.get(id).removeAll(tempFrames);
-    keyframes.get(id).addAll(newFrames);
-    remakeCommands(id);
+  @Override
+  public int compactKeyFrames() {
+    int removed = 0;
+    this.history.begin();
+    try {
+      for (int handle = 0; handle < this.names.size(); handle++) {
+        if (this.names.get(handle) == null) {
+          continue;
+        }
+        removed += removeKeyFrames(handle, keyframes.get(handle).compact());
+      }
+    }
+    finally {
+      this.history.end();
+    }
+    return removed;
   }
 
-  private void remakeCommands(String id) {
-    List<ICommand> tempCommands = new ArrayList<>();
-    int framesSize = keyframes.get(id).size();
-    for (int i = 0; i < framesSize; i++) {
-      if (i == framesSize - 1) {
-        commands.get(id).removeAll(commands.get(id));
-        commands.get(id).addAll(tempCommands);
+  @Override
+  public int simplifyKeyFrames(int pixels, int colors) {
+    if (pixels < 0 || colors < 0) {
+      throw new IllegalArgumentException("Tolerances cannot be negative.");
+    }
+    int removed = 0;
+    this.history.begin();
+    try {
+      for (int handle = 0; handle < this.names.size(); handle++) {
+        if (this.names.get(handle) == null) {
+          continue;
+        }
+        removed += removeKeyFrames(handle, keyframes.get(handle).simplify(pixels, colors));
       }
-      else {
-        IKeyFrame first = keyframes.get(id).get(i);
-        IKeyFrame second = keyframes.get(id).get(i + 1);
-        tempCommands.add(first.convertToMotionCommand(second));
+    }
+    finally {
+      this.history.end();
+    }
+    return removed;
+  }
+
+  /**
+   * Removes every KeyFrame of a shape that is not to be kept in one go, copying the shape,
+   * rebuilding its commands, publishing it and telling the listeners only once. The removal is
+   * recorded as a single edit holding the KeyFrames that were removed.
+   *
+   * @param handle the handle of the shape.
+   * @param keep whether each KeyFrame should be kept, by index.
+   * @return the number of KeyFrames removed.
+   */
+  private int removeKeyFrames(int handle, boolean[] keep) {
+    int count = 0;
+    for (boolean kept : keep) {
+      if (!kept) {
+        count++;
       }
     }
+    if (count == 0) {
+      return 0;
+    }
+    KeyFrameTrack track = keyframes.get(handle);
+    int[] indices = new int[count];
+    IKeyFrame[] removedFrames = new IKeyFrame[count];
+    count = 0;
+    for (int index = 0; index < keep.length; index++) {
+      if (!keep[index]) {
+        indices[count] = index;
+        removedFrames[count] = track.getKeyFrame(index);
+        count++;
+      }
+    }
+    RemovalEdit edit = new RemovalEdit(names.get(handle), indices, removedFrames,
+            commandsUnlessInStep(handle));
+    edit.redo();
+    this.history.record(edit);
+    return count;
   }
 
-  private int getFirstTick(List<IKeyFrame> keyFrames) {
-    return keyFrames.get(0).getTick();
+  // makes every command of a shape again from its KeyFrames
+  private void rebuildCommands(int handle) {
+    int oldEnd = getEndTime(handle);
+    KeyFrameTrack track = keyframes.get(handle);
+    List<ICommand> tempCommands = commands.get(handle);
+    tempCommands.clear();
+    for (int i = 0; i < track.size() - 1; i++) {
+      tempCommands.add(track.getCommand(i));
+    }
+    updateFinalTick(oldEnd, getEndTime(handle));
   }
 
-  private int getLastTick(List<IKeyFrame> keyFrames) {
-    int size = keyFrames.size();
-    IKeyFrame lastFrame = keyFrames.get(size - 1);
-    return lastFrame.getTick();
+  @Override
+  public MemoryReport getMemoryReport() {
+    int keyFrames = 0;
+    int segments = 0;
+    int commandCount = 0;
+    long bytes = this.pool.getBytes();
+    long unsharedBytes = 0;
+    for (int handle = 0; handle < this.names.size(); handle++) {
+      if (this.names.get(handle) == null) {
+        continue;
+      }
+      KeyFrameTrack track = keyframes.get(handle);
+      keyFrames += track.size();
+      segments += Math.max(0, track.size() - 1);
+      commandCount += commands.get(handle).size();
+      bytes += track.getBytes();
+      unsharedBytes += track.getBytes();
+    }
+    // without sharing, every row would hold its slopes in place of the index of its entry
+    unsharedBytes += (long) keyFrames * (SegmentPool.getPayloadBytes() - 4);
+    long commandBytes = (long) commandCount * COMMAND_BYTES;
+    int used = countUsedSegments();
+    return new MemoryReport(keyFrames, segments, used, this.pool.size() - used, commandCount,
+            bytes + commandBytes, unsharedBytes + commandBytes);
   }
 
+  /**
+   * Publishes a new version of this model after a single shape was added, edited or removed. Once
+   * the pool of compiled segments has doubled since it was last checked, it is checked for entries
+   * that no shape uses, left behind by shapes that were edited or removed. If those are the
+   * majority, every shape is moved to a new pool holding only the entries in use, so they never
+   * build up.
+   *
+   * @param handle the handle of the shape that changed, or -1 if no shape changed.
+   */
   @Override
-  public void deleteKeyFrame(String id, int tick) {
-    if (!ids.contains(id)) {
-      throw new IllegalArgumentException();
+  protected void publish(int handle) {
+    if (this.pool.size() < this.poolCheck) {
+      super.publish(handle);
+      return ;
+    }
+    if (countUsedSegments() * 2 < this.pool.size()) {
+      this.pool = new SegmentPool();
+      movePool(this.pool);
     }
     else {
-      for (IKeyFrame k: this.keyframes.get(id)) {
-        if (k.getTick() == tick) {
-          keyframes.get(id).remove(k);
-          remakeCommands(id);
-          return ;
+      super.publish(handle);
+    }
+    this.poolCheck = Math.max(POOL_CHECK, this.pool.size() * 2);
+  }
+
+  // counts the entries of the pool that the segments of some shape refer to
+  private int countUsedSegments() {
+    boolean[] used = new boolean[this.pool.size()];
+    for (KeyFrameTrack track : keyframes) {
+      if (track != null) {
+        track.markSegments(used);
+      }
+    }
+    int count = 0;
+    for (boolean entry : used) {
+      if (entry) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Tells every listener that KeyFrames of a shape at a tick were added, replaced or removed. The
+   * shape may look different from the KeyFrame before them up to the KeyFrame after them.
+   *
+   * @param handle the handle of the shape.
+   * @param before the index of the KeyFrame before the ones that changed, or -1 if there is none.
+   * @param after the index of the KeyFrame after the ones that changed, which may be past the end.
+   * @param tick the tick of the KeyFrames that changed.
+   */
+  private void fireKeyFramesChanged(int handle, int before, int after, int tick) {
+    KeyFrameTrack track = keyframes.get(handle);
+    fireKeyFramesChanged(names.get(handle), before >= 0 ? track.getTick(before) : tick,
+            after < track.size() ? track.getTick(after) : tick);
+  }
+
+  /**
+   * Retrieves the commands of a shape if they are not in step with its KeyFrames, in which case
+   * the next KeyFrame edit rebuilds all of them and they cannot be made again from the KeyFrames.
+   *
+   * @param handle the handle of the shape.
+   * @return a copy of the commands of the shape, or null if they are in step.
+   */
+  private List<ICommand> commandsUnlessInStep(int handle) {
+    List<ICommand> tempCommands = commands.get(handle);
+    if (tempCommands.size() == Math.max(0, keyframes.get(handle).size() - 1)) {
+      return null;
+    }
+    // the commands may be changed in place by the edit, so the history keeps its own
+    return new ArrayList<>(tempCommands);
+  }
+
+  @Override
+  public void undo() {
+    this.history.undo();
+  }
+
+  @Override
+  public void redo() {
+    this.history.redo();
+  }
+
+  @Override
+  public void beginEditGroup() {
+    this.history.begin();
+  }
+
+  @Override
+  public void endEditGroup() {
+    this.history.end();
+  }
+
+  /**
+   * Appends many motions to a shape at once. The motions are sorted by start time and checked to
+   * follow on from each other and from the last command already on the shape, and the KeyFrames
+   * are then appended without any searching.
+   *
+   * @param handle the handle of the shape.
+   * @param motions the motions, each given by 16 values in the order of the
+   *                {@link MotionCommand} constructor.
+   * @param count the number of motions.
+   * @throws IllegalArgumentException if a motion is invalid or does not follow on from the one
+   *                                  before it. The shape is left unchanged in that case.
+   */
+  private void addMotions(int handle, int[] motions, int count) {
+    long[] order = new long[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = ((long) motions[i * 16] << 32) | i;
+    }
+    Arrays.sort(order);
+
+    ICommand[] sorted = new ICommand[count];
+    unshare(handle);
+    List<ICommand> tempCommands = commands.get(handle);
+    ICommand previous = tempCommands.isEmpty() ? null
+            : tempCommands.get(tempCommands.size() - 1);
+    for (int i = 0; i < count; i++) {
+      int m = (int) order[i] * 16;
+      sorted[i] = new MotionCommand(motions[m], motions[m + 1], motions[m + 2], motions[m + 3],
+              motions[m + 4], motions[m + 5], motions[m + 6], motions[m + 7], motions[m + 8],
+              motions[m + 9], motions[m + 10], motions[m + 11], motions[m + 12], motions[m + 13],
+              motions[m + 14], motions[m + 15]);
+      if (previous != null && !checkForValidMatch(sorted[i], previous)) {
+        throw new IllegalArgumentException("Invalid command addition.");
+      }
+      previous = sorted[i];
+    }
+
+    int oldEnd = getEndTime(handle);
+    KeyFrameTrack track = keyframes.get(handle);
+    for (ICommand c : sorted) {
+      if (tempCommands.isEmpty()) {
+        track.add(c.getStartTime(), c.getStartX(), c.getStartY(), c.getStartWidth(),
+                c.getStartHeight(), c.getStartRed(), c.getStartGreen(), c.getStartBlue());
+      }
+      tempCommands.add(c);
+      track.add(c.getEndTime(), c.getEndX(), c.getEndY(), c.getEndWidth(), c.getEndHeight(),
+              c.getEndRed(), c.getEndGreen(), c.getEndBlue());
+    }
+    updateFinalTick(oldEnd, getEndTime(handle));
+    publish(handle);
+  }
+
+  /**
+   * Adds many KeyFrames to a shape at once. The KeyFrames are sorted by tick, with the one given
+   * last winning when several share a tick, just as if they had been added one at a time with
+   * {@link #addKeyFrame}. They are merged with the KeyFrames the shape already has in a single
+   * pass, each one replacing every KeyFrame at its tick, and the commands are built once at the
+   * end.
+   *
+   * @param handle the handle of the shape.
+   * @param frames the KeyFrames, each given by 8 values in the order of the {@link KeyFrame}
+   *               constructor.
+   * @param count the number of KeyFrames.
+   * @throws IllegalArgumentException if a KeyFrame is invalid. The shape is left unchanged in
+   *                                  that case.
+   */
+  private void addKeyFrames(int handle, int[] frames, int count) {
+    long[] order = new long[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = ((long) frames[i * 8] << 32) | i;
+    }
+    Arrays.sort(order);
+
+    List<IKeyFrame> sorted = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      if (i + 1 < count && order[i + 1] >>> 32 == order[i] >>> 32) {
+        continue;
+      }
+      int f = (int) order[i] * 8;
+      sorted.add(new KeyFrame(frames[f], frames[f + 1], frames[f + 2], frames[f + 3],
+              frames[f + 4], frames[f + 5], frames[f + 6], frames[f + 7]));
+    }
+
+    unshare(handle);
+    KeyFrameTrack track = keyframes.get(handle);
+    int[] indices = new int[sorted.size()];
+    IKeyFrame[] inserted = new IKeyFrame[sorted.size()];
+    int insertions = 0;
+    int index = 0;
+    for (IKeyFrame k : sorted) {
+      while (index < track.size() && track.getTick(index) < k.getTick()) {
+        index++;
+      }
+      if (index < track.size() && track.getTick(index) == k.getTick()) {
+        while (index < track.size() && track.getTick(index) == k.getTick()) {
+          track.set(index, k);
+          index++;
         }
       }
-      throw new IllegalArgumentException("No KeyFrame at given tick " + tick);
+      else {
+        // the KeyFrames inserted before it push it back from where it would go now
+        indices[insertions] = index + insertions;
+        inserted[insertions] = k;
+        insertions++;
+      }
     }
+    track.insertAll(Arrays.copyOf(indices, insertions), Arrays.copyOf(inserted, insertions));
+    rebuildCommands(handle);
+    publish(handle);
   }
 
-  private boolean isValidCommand(String id, ICommand c) {
-    List<ICommand> tempCommands = this.commands.get(id);
+  private boolean isValidCommand(int handle, ICommand c) {
+    List<ICommand> tempCommands = this.commands.get(handle);
     if (tempCommands.size() == 0) {
       return true;
     } else {
@@ -238,27 +608,309 @@ public class AnimationModel extends ViewOnlyAnimationModel implements IAnimation
     }
   }
 
+  /**
+   * An edit that replaces the KeyFrames of a shape from a given index on. Adding a KeyFrame
+   * inserts one or replaces those at its tick, and deleting one removes it. The commands are then
+   * made again from the KeyFrames, unless they were not in step with them before the edit, in
+   * which case undoing the edit puts the old commands back as well.
+   */
+  private final class KeyFrameEdit implements EditHistory.Edit {
+
+    private final String id;
+    private final int index;
+    private final IKeyFrame[] before;
+    private final IKeyFrame[] after;
+    private final List<ICommand> commandsBefore;
+
+    private KeyFrameEdit(String id, int index, IKeyFrame[] before, IKeyFrame[] after,
+                         List<ICommand> commandsBefore) {
+      this.id = id;
+      this.index = index;
+      this.before = before;
+      this.after = after;
+      this.commandsBefore = commandsBefore;
+    }
+
+    @Override
+    public void undo() {
+      int handle = replace(this.after, this.before);
+      if (this.commandsBefore != null) {
+        int oldEnd = getEndTime(handle);
+        // the model may change the commands it is given in place, so the edit keeps its own
+        commands.set(handle, new ArrayList<>(this.commandsBefore));
+        updateFinalTick(oldEnd, getEndTime(handle));
+      }
+      publish(handle);
+      changed(handle, this.before.length);
+    }
+
+    @Override
+    public void redo() {
+      int handle = replace(this.before, this.after);
+      publish(handle);
+      changed(handle, this.after.length);
+    }
+
+    private void changed(int handle, int rows) {
+      IKeyFrame k = this.after.length > 0 ? this.after[0] : this.before[0];
+      fireKeyFramesChanged(handle, this.index - 1, this.index + rows, k.getTick());
+    }
+
+    // swaps the KeyFrames from the index on for others, which are either as many or one more or
+    // one fewer, and returns the handle of the shape
+    private int replace(IKeyFrame[] from, IKeyFrame[] to) {
+      int handle = getHandle(this.id);
+      unshare(handle);
+      KeyFrameTrack track = keyframes.get(handle);
+      if (from.length == to.length) {
+        for (int i = 0; i < to.length; i++) {
+          track.set(this.index + i, to[i]);
+        }
+        remakeCommands(handle, this.index, this.index + to.length - 1, 0);
+      }
+      else if (to.length > from.length) {
+        track.insert(this.index, to[0]);
+        remakeCommands(handle, this.index, this.index, 1);
+      }
+      else {
+        track.remove(this.index);
+        remakeCommands(handle, this.index, this.index, -1);
+      }
+      return handle;
+    }
+  }
+
+  /**
+   * An edit that removes many KeyFrames of a shape at once, as compacting or simplifying the
+   * KeyFrames does. Undoing it puts every KeyFrame back where it was in one go. The commands are
+   * made again from the KeyFrames, unless they were not in step with them before the edit, in
+   * which case undoing the edit puts the old commands back as well.
+   */
+  private final class RemovalEdit implements EditHistory.Edit {
+
+    private final String id;
+    private final int[] indices;
+    private final IKeyFrame[] removed;
+    private final List<ICommand> commandsBefore;
+
+    private RemovalEdit(String id, int[] indices, IKeyFrame[] removed,
+                        List<ICommand> commandsBefore) {
+      this.id = id;
+      this.indices = indices;
+      this.removed = removed;
+      this.commandsBefore = commandsBefore;
+    }
+
+    @Override
+    public void undo() {
+      int handle = getHandle(this.id);
+      unshare(handle);
+      keyframes.get(handle).insertAll(this.indices, this.removed);
+      if (this.commandsBefore != null) {
+        int oldEnd = getEndTime(handle);
+        // the model may change the commands it is given in place, so the edit keeps its own
+        commands.set(handle, new ArrayList<>(this.commandsBefore));
+        updateFinalTick(oldEnd, getEndTime(handle));
+      }
+      else {
+        rebuildCommands(handle);
+      }
+      publish(handle);
+      changed(handle, this.indices[this.indices.length - 1] + 1);
+    }
+
+    @Override
+    public void redo() {
+      int handle = getHandle(this.id);
+      unshare(handle);
+      keyframes.get(handle).removeAll(this.indices);
+      rebuildCommands(handle);
+      publish(handle);
+      changed(handle, this.indices[this.indices.length - 1] + 1 - this.indices.length);
+    }
+
+    // tells the listeners that the shape may look different from the KeyFrame before the first
+    // one removed up to the KeyFrame after the last one, which is at the given index
+    private void changed(int handle, int after) {
+      KeyFrameTrack track = keyframes.get(handle);
+      int before = this.indices[0] - 1;
+      int startTick = before >= 0 ? track.getTick(before) : this.removed[0].getTick();
+      int endTick = after < track.size() ? track.getTick(after)
+              : this.removed[this.removed.length - 1].getTick();
+      fireKeyFramesChanged(this.id, startTick, endTick);
+    }
+  }
+
+  /**
+   * An edit that appends a command to a shape, together with the KeyFrames at its ends, or that
+   * removes the last command of a shape.
+   */
+  private final class CommandEdit implements EditHistory.Edit {
+
+    private final String id;
+    private final ICommand command;
+    private final int rows;
+
+    /**
+     * Creates an edit of the commands of a shape.
+     *
+     * @param id unique shape identifier.
+     * @param command the command that was appended or removed.
+     * @param rows the number of KeyFrames appended with the command, or -1 if it was removed.
+     */
+    private CommandEdit(String id, ICommand command, int rows) {
+      this.id = id;
+      this.command = command;
+      this.rows = rows;
+    }
+
+    @Override
+    public void undo() {
+      if (this.rows < 0) {
+        appendCommand(getHandle(this.id), this.command, false);
+      }
+      else {
+        dropCommand(getHandle(this.id), this.rows);
+      }
+    }
+
+    @Override
+    public void redo() {
+      if (this.rows < 0) {
+        dropCommand(getHandle(this.id), 0);
+      }
+      else {
+        appendCommand(getHandle(this.id), this.command, true);
+      }
+    }
+  }
+
+  /**
+   * An edit that adds or removes a whole shape. A removed shape keeps the KeyFrames and commands
+   * it had, which belong to a published version and are never changed, and is put back where it
+   * was taken from. If the empty entries have been cleared out in the meantime, it is put back
+   * before the shape that followed it instead.
+   */
+  private final class ShapeEdit implements EditHistory.Edit {
+
+    private final String id;
+    private final boolean added;
+    private IViewOnlyShape shape;
+    private KeyFrameTrack track;
+    private List<ICommand> commandList;
+    private int handle;
+    private int compactionsBefore;
+    private String successor;
+
+    private ShapeEdit(String id, boolean added) {
+      this.id = id;
+      this.added = added;
+    }
+
+    @Override
+    public void undo() {
+      if (this.added) {
+        remove();
+      }
+      else {
+        restore();
+      }
+    }
+
+    @Override
+    public void redo() {
+      if (this.added) {
+        restore();
+      }
+      else {
+        remove();
+      }
+    }
+
+    private void remove() {
+      this.handle = getHandle(this.id);
+      this.shape = shapes.get(this.handle);
+      this.track = keyframes.get(this.handle);
+      this.commandList = commands.get(this.handle);
+      int next = this.handle + 1;
+      while (next < names.size() && names.get(next) == null) {
+        next++;
+      }
+      this.successor = next < names.size() ? names.get(next) : null;
+      this.compactionsBefore = compactions;
+      detach(this.handle);
+    }
+
+    private void restore() {
+      // the model may have moved to a new pool since the shape was removed
+      if (!this.track.isIn(pool)) {
+        this.track = this.track.copy(this.track.getGeneration(), pool);
+      }
+      if (this.compactionsBefore != compactions) {
+        Integer next = this.successor == null ? null : handles.get(this.successor);
+        insertShape(next == null ? names.size() : next, this.id, this.shape, this.track,
+                this.commandList);
+        fireShapeAdded(this.id);
+        return ;
+      }
+      handles.put(this.id, this.handle);
+      names.set(this.handle, this.id);
+      shapes.set(this.handle, this.shape);
+      commands.set(this.handle, this.commandList);
+      keyframes.set(this.handle, this.track);
+      removed--;
+      updateFinalTick(-1, getEndTime(this.handle));
+      publish(this.handle);
+      fireShapeAdded(this.id);
+    }
+  }
+
   /**
    * A static public class representing a model builder. This class contains methods for building
-   * a model including setting the screen size, adding shapes, and adding motions.
+   * a model including setting the screen size, adding shapes, adding motions and adding
+   * KeyFrames. Motions and KeyFrames are not added to the model one at a time. Their values are
+   * appended to buffers of integers kept for each shape under its handle, and {@link #build()}
+   * sorts, checks and adds the motions and then the KeyFrames of each shape in one pass. Once the
+   * model is built, the builder cannot be used again.
    */
   public static final class Builder implements AnimationBuilder<IAnimationModel> {
 
-    private IAnimationModel model = new AnimationModel();
+    private final AnimationModel model = new AnimationModel();
+    private final List<Rows> motions = new ArrayList<>();
+    private final List<Rows> frames = new ArrayList<>();
+    private boolean built = false;
 
     @Override
     public IAnimationModel build() {
+      checkNotBuilt();
+      for (int handle = 0; handle < this.motions.size(); handle++) {
+        Rows shapeMotions = this.motions.get(handle);
+        if (shapeMotions.count > 0) {
+          this.model.addMotions(handle, shapeMotions.values, shapeMotions.count);
+        }
+        Rows shapeFrames = this.frames.get(handle);
+        if (shapeFrames.count > 0) {
+          this.model.addKeyFrames(handle, shapeFrames.values, shapeFrames.count);
+        }
+      }
+      this.motions.clear();
+      this.frames.clear();
+      // loading the file is not an edit that can be undone
+      this.model.history.clear();
+      this.built = true;
       return this.model;
     }
 
     @Override
     public AnimationBuilder<IAnimationModel> setBounds(int x, int y, int width, int height) {
+      checkNotBuilt();
       this.model.setScreenSize(x, y, width, height);
       return null;
     }
 
     @Override
     public AnimationBuilder<IAnimationModel> declareShape(String name, String type) {
+      checkNotBuilt();
       switch (type) {
         case "rectangle":
           this.model.addShape(name, new Rectangle());
@@ -269,6 +921,9 @@ public class AnimationModel extends ViewOnlyAnimationModel implements IAnimation
         default:
           throw new IllegalArgumentException("Invalid shape.");
       }
+      // the builder never removes shapes, so handles are handed out in declaration order
+      this.motions.add(new Rows(16));
+      this.frames.add(new Rows(8));
       return null;
     }
 
@@ -277,15 +932,86 @@ public class AnimationModel extends ViewOnlyAnimationModel implements IAnimation
                                                        int h1, int r1, int g1, int b1, int t2,
                                                        int x2, int y2, int w2, int h2, int r2,
                                                        int g2, int b2) {
-      this.model.addCommand(name, new MotionCommand(t1, x1, y1, w1, h1, r1, g1, b1, t2, x2, y2, w2,
-              h2, r2, g2, b2));
+      checkNotBuilt();
+      Rows shapeMotions = this.motions.get(getHandle(name));
+      int[] values = shapeMotions.append();
+      int m = (shapeMotions.count - 1) * 16;
+      values[m] = t1;
+      values[m + 1] = x1;
+      values[m + 2] = y1;
+      values[m + 3] = w1;
+      values[m + 4] = h1;
+      values[m + 5] = r1;
+      values[m + 6] = g1;
+      values[m + 7] = b1;
+      values[m + 8] = t2;
+      values[m + 9] = x2;
+      values[m + 10] = y2;
+      values[m + 11] = w2;
+      values[m + 12] = h2;
+      values[m + 13] = r2;
+      values[m + 14] = g2;
+      values[m + 15] = b2;
       return null;
     }
 
     @Override
     public AnimationBuilder<IAnimationModel> addKeyframe(String name, int t, int x, int y,
                                                          int w, int h, int r, int g, int b) {
+      checkNotBuilt();
+      Rows shapeFrames = this.frames.get(getHandle(name));
+      int[] values = shapeFrames.append();
+      int f = (shapeFrames.count - 1) * 8;
+      values[f] = t;
+      values[f + 1] = x;
+      values[f + 2] = y;
+      values[f + 3] = w;
+      values[f + 4] = h;
+      values[f + 5] = r;
+      values[f + 6] = g;
+      values[f + 7] = b;
       return null;
     }
+
+    // finds the handle of a declared shape
+    private int getHandle(String name) {
+      Integer handle = this.model.handles.get(name);
+      if (handle == null) {
+        throw new IllegalArgumentException("Invalid ID");
+      }
+      return handle;
+    }
+
+    private void checkNotBuilt() {
+      if (this.built) {
+        throw new IllegalStateException("The model has already been built.");
+      }
+    }
+
+    /**
+     * The motions or KeyFrames declared for a single shape, each stored as a row of a fixed
+     * number of consecutive integers.
+     */
+    private static final class Rows {
+
+      private final int stride;
+      private int[] values;
+      private int count;
+
+      private Rows(int stride) {
+        this.stride = stride;
+        this.values = new int[stride * 4];
+        this.count = 0;
+      }
+
+      // makes room for one more row at the end and returns the array that holds it
+      private int[] append() {
+        if ((this.count + 1) * this.stride > this.values.length) {
+          this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
+        this.count++;
+        return this.values;
+      }
+    }
   }
 }
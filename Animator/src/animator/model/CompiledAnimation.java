@@ -0,0 +1,487 @@
+package animator.model;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A public class representing an immutable version of an animation, as returned by
+ * {@link IViewOnlyAnimationModel#freeze()}. A model publishes a new version after every edit. Each
+ * version shares every shape that was not edited with the version before it, so publishing only
+ * copies the shapes that changed. Until a version is handed out to a reader, the model may still
+ * change the KeyFrames and commands it shares in place, but once it has been handed out the model
+ * never changes them again. Nothing in a handed out version changes afterwards, so it can be shared
+ * between any number of views and threads without copying or locking, and it is not affected by
+ * later edits. The lookup table, the playback schedule and the other derived data of a version are
+ * worked out the first time they are needed, since most versions are replaced before being read.
+ */
+public final class CompiledAnimation implements IViewOnlyAnimationModel {
+
+  // whether a version may still be handed out, has been, or never will be as the model is
+  // changing it or has replaced it
+  private static final int OPEN = 0;
+  private static final int TAKEN = 1;
+  private static final int CLOSED = 2;
+  // the stamp given to the last version made by any model
+  private static final AtomicLong STAMPS = new AtomicLong();
+
+  private final boolean screenSet;
+  private final int left;
+  private final int top;
+  private final int width;
+  private final int height;
+  private final int finalTick;
+  private final PersistentArray<Entry> entries;
+  private final int removed;
+  private final AtomicInteger state;
+  private final long stamp;
+  private volatile Layout layout;
+  private volatile SegmentSchedule schedule;
+  private volatile HitCache hitCache;
+  private volatile IntervalTree lifetimes;
+
+  /**
+   * A constructor that takes a version of every shape of a model. Versions are indexed by the
+   * handles of the model, with an empty entry for each removed shape.
+   *
+   * @param model the model to be published.
+   */
+  CompiledAnimation(ViewOnlyAnimationModel model) {
+    this(model, PersistentArray.of(entriesOf(model)));
+  }
+
+  private CompiledAnimation(ViewOnlyAnimationModel model, PersistentArray<Entry> entries) {
+    this.screenSet = model.screenSet;
+    this.left = model.left;
+    this.top = model.top;
+    this.width = model.width;
+    this.height = model.height;
+    this.finalTick = model.refreshFinalTick();
+    this.entries = entries;
+    this.removed = model.removed;
+    this.state = new AtomicInteger(OPEN);
+    this.stamp = STAMPS.incrementAndGet();
+  }
+
+  /**
+   * Marks this version as handed out to a reader, after which the model never changes anything it
+   * holds.
+   *
+   * @return whether the version is handed out, which fails if the model has closed it.
+   */
+  boolean take() {
+    return this.state.compareAndSet(OPEN, TAKEN) || this.state.get() == TAKEN;
+  }
+
+  /**
+   * Marks this version as never to be handed out, so that the model may change what it holds in
+   * place or replace it.
+   *
+   * @return whether the version is closed, which fails if it has already been handed out.
+   */
+  boolean close() {
+    return this.state.compareAndSet(OPEN, CLOSED) || this.state.get() == CLOSED;
+  }
+
+  /**
+   * Creates the version that follows this one after a single shape of a model was added, edited
+   * or removed, sharing every other shape with this version. The screen and the final tick are
+   * taken from the model as well.
+   *
+   * @param model the model that was edited.
+   * @param handle the handle of the shape that changed, or -1 if no shape changed.
+   * @return the new version.
+   */
+  CompiledAnimation update(ViewOnlyAnimationModel model, int handle) {
+    if (handle < 0) {
+      return new CompiledAnimation(model, this.entries);
+    }
+    return new CompiledAnimation(model, this.entries.set(handle, entryOf(model, handle)));
+  }
+
+  /**
+   * Retrieves the KeyFrames that this version holds for a shape, which must not be changed.
+   *
+   * @param handle the handle of the shape in the model that published this version.
+   * @return the KeyFrames of the shape, or null if this version does not hold the shape.
+   */
+  KeyFrameTrack getTrack(int handle) {
+    Entry entry = handle < this.entries.size() ? this.entries.get(handle) : null;
+    return entry == null ? null : entry.track;
+  }
+
+  /**
+   * Retrieves the commands that this version holds for a shape, which must not be changed.
+   *
+   * @param handle the handle of the shape in the model that published this version.
+   * @return the commands of the shape, or null if this version does not hold the shape.
+   */
+  List<ICommand> getCommandList(int handle) {
+    Entry entry = handle < this.entries.size() ? this.entries.get(handle) : null;
+    return entry == null ? null : entry.commands;
+  }
+
+  /**
+   * A version cannot be changed, so this method always fails.
+   *
+   * @throws IllegalStateException always.
+   */
+  @Override
+  public void setScreenSize(int left, int top, int width, int height) {
+    throw new IllegalStateException("A compiled animation cannot be changed.");
+  }
+
+  @Override
+  public Dimension getScreenSize() {
+    checkScreenSet();
+    return new Dimension(this.width, this.height);
+  }
+
+  @Override
+  public int getTop() {
+    checkScreenSet();
+    return this.top;
+  }
+
+  @Override
+  public int getLeft() {
+    checkScreenSet();
+    return this.left;
+  }
+
+  @Override
+  public int getWidth() {
+    checkScreenSet();
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    checkScreenSet();
+    return this.height;
+  }
+
+  @Override
+  public IViewOnlyShape getShape(String id) {
+    return getEntry(id).shape.getCopy();
+  }
+
+  @Override
+  public List<IViewOnlyShape> getShapes() {
+    List<IViewOnlyShape> result = new ArrayList<>();
+    for (Entry entry : getLayout().entries) {
+      result.add(entry.shape.getCopy());
+    }
+    return result;
+  }
+
+  @Override
+  public List<ICommand> getCommands(String id) {
+    List<ICommand> result = new ArrayList<>();
+    for (ICommand c : getEntry(id).commands) {
+      result.add(c.getCopy());
+    }
+    return result;
+  }
+
+  @Override
+  public List<String> getIds() {
+    return new ArrayList<>(getLayout().idsView);
+  }
+
+  @Override
+  public List<String> getIdsView() {
+    return getLayout().idsView;
+  }
+
+  @Override
+  public List<ICommand> getCommandsView(String id) {
+    return Collections.unmodifiableList(getEntry(id).commands);
+  }
+
+  @Override
+  public void forEachShape(BiConsumer<String, IViewOnlyShape> action) {
+    for (Entry entry : getLayout().entries) {
+      action.accept(entry.id, entry.shape);
+    }
+  }
+
+  @Override
+  public void forEachKeyFrame(String id, KeyFrameConsumer action) {
+    KeyFrameTrack track = getEntry(id).track;
+    for (int i = 0; i < track.size(); i++) {
+      action.accept(track.getTick(i), track.getX(i), track.getY(i), track.getWidth(i),
+              track.getHeight(i), track.getRed(i), track.getGreen(i), track.getBlue(i));
+    }
+  }
+
+  @Override
+  public void forEachKeyFrame(String id, int groups, KeyFrameConsumer action) {
+    getEntry(id).track.forEachNeeded(groups, action);
+  }
+
+  @Override
+  public int getFinalTick() {
+    return this.finalTick;
+  }
+
+  @Override
+  public List<IKeyFrame> getKeyFrames(String id) {
+    KeyFrameTrack track = getEntry(id).track;
+    List<IKeyFrame> result = new ArrayList<>();
+    for (int i = 0; i < track.size(); i++) {
+      result.add(track.getKeyFrame(i));
+    }
+    return result;
+  }
+
+  /**
+   * Retrieves the states of all mutable shapes at given tick. Unlike the model, a version does
+   * not remember the states it hands out, so {@link #getShape} always returns the declared shape.
+   *
+   * @param tick integer representing which tick the shapes should be set to.
+   * @return a list of mutable shapes representing all of the shapes at the chosen tick.
+   */
+  @Override
+  public List<IShape> getShapesAtTick(int tick) {
+    List<IShape> result = new ArrayList<>();
+    for (Entry entry : getLayout().entries) {
+      int segment = entry.track.findSegment(tick);
+      if (segment >= 0) {
+        result.add(entry.track.getState(segment, tick, entry.shape.getMutableCopy()));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void sampleInto(int tick, FrameBuffer out) {
+    if (out == null) {
+      throw new IllegalArgumentException("Frame buffer cannot be null");
+    }
+    out.clear();
+    for (Entry entry : getLayout().entries) {
+      int segment = entry.track.findSegment(tick);
+      if (segment >= 0) {
+        entry.track.getState(segment, tick, entry.id, entry.kind, out);
+      }
+    }
+  }
+
+  @Override
+  public PlaybackCursor createCursor() {
+    return new PlaybackCursor(getSchedule());
+  }
+
+  /**
+   * Retrieves the playback schedule of this version, compiling it the first time it is needed.
+   *
+   * @return the compiled schedule.
+   */
+  SegmentSchedule getSchedule() {
+    SegmentSchedule result = this.schedule;
+    if (result == null) {
+      Layout current = getLayout();
+      result = new SegmentSchedule(current.ids, current.kinds, current.tracks);
+      this.schedule = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String getIdOfTopShape(int tick, int x, int y) {
+    HitCache cache = this.hitCache;
+    if (cache == null || cache.tick != tick) {
+      FrameBuffer frame = new FrameBuffer();
+      sampleInto(tick, frame);
+      cache = new HitCache(tick, new HitIndex(frame));
+      this.hitCache = cache;
+    }
+    int index = cache.index.getTopShapeAt(x + this.left, y + this.top);
+    if (index < 0) {
+      throw new IllegalArgumentException();
+    }
+    return cache.index.getFrame().getId(index);
+  }
+
+  @Override
+  public List<String> shapesActiveBetween(int startTick, int endTick) {
+    if (endTick < startTick) {
+      throw new IllegalArgumentException("The window cannot end before it starts");
+    }
+    Layout current = getLayout();
+    int[] found = getLifetimes().query(startTick, endTick);
+    Arrays.sort(found);
+    List<String> result = new ArrayList<>(found.length);
+    for (int index : found) {
+      result.add(current.ids[index]);
+    }
+    return result;
+  }
+
+  // indexes the ticks from the first KeyFrame to the last of every shape the first time they
+  // are asked about
+  private IntervalTree getLifetimes() {
+    IntervalTree result = this.lifetimes;
+    if (result == null) {
+      KeyFrameTrack[] tracks = getLayout().tracks;
+      int[] starts = new int[tracks.length];
+      int[] ends = new int[tracks.length];
+      for (int i = 0; i < tracks.length; i++) {
+        if (tracks[i].size() < 2) {
+          starts[i] = Integer.MAX_VALUE;
+          ends[i] = Integer.MIN_VALUE;
+        }
+        else {
+          starts[i] = tracks[i].getTick(0);
+          ends[i] = tracks[i].getTick(tracks[i].size() - 1);
+        }
+      }
+      result = new IntervalTree(starts, ends);
+      this.lifetimes = result;
+    }
+    return result;
+  }
+
+  @Override
+  public CompiledAnimation freeze() {
+    return this;
+  }
+
+  @Override
+  public long getVersionStamp() {
+    return this.stamp;
+  }
+
+  /**
+   * A version never changes, so the listener is never called and is not kept.
+   *
+   * @param listener the listener to be added.
+   * @throws IllegalArgumentException if listener is null.
+   */
+  @Override
+  public void addListener(IModelListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener cannot be null");
+    }
+  }
+
+  @Override
+  public void removeListener(IModelListener listener) {
+    return ;
+  }
+
+  private Entry getEntry(String id) {
+    Layout current = getLayout();
+    Integer index = current.handles.get(id);
+    if (index == null) {
+      throw new IllegalArgumentException();
+    }
+    return current.entries[index];
+  }
+
+  // lays the shapes out in drawing order the first time they are read, which any thread may do
+  private Layout getLayout() {
+    Layout result = this.layout;
+    if (result == null) {
+      result = new Layout(this.entries, this.entries.size() - this.removed);
+      this.layout = result;
+    }
+    return result;
+  }
+
+  private void checkScreenSet() {
+    if (!this.screenSet) {
+      throw new IllegalStateException();
+    }
+  }
+
+  private static Entry[] entriesOf(ViewOnlyAnimationModel model) {
+    Entry[] result = new Entry[model.names.size()];
+    for (int handle = 0; handle < result.length; handle++) {
+      result[handle] = entryOf(model, handle);
+    }
+    return result;
+  }
+
+  private static Entry entryOf(ViewOnlyAnimationModel model, int handle) {
+    if (model.names.get(handle) == null) {
+      return null;
+    }
+    return new Entry(model.names.get(handle), model.shapes.get(handle),
+            model.keyframes.get(handle), model.commands.get(handle));
+  }
+
+  // one shape of a version, whose track and commands the model no longer changes once the
+  // version has been handed out
+  private static final class Entry {
+
+    private final String id;
+    private final int kind;
+    private final IViewOnlyShape shape;
+    private final KeyFrameTrack track;
+    private final List<ICommand> commands;
+
+    private Entry(String id, IViewOnlyShape shape, KeyFrameTrack track,
+                  List<ICommand> commands) {
+      this.id = id;
+      this.kind = FrameBuffer.kindOf(shape);
+      this.shape = shape;
+      this.track = track;
+      this.commands = commands;
+    }
+  }
+
+  // the shapes of a version that have not been removed, in drawing order
+  private static final class Layout {
+
+    private final Entry[] entries;
+    private final String[] ids;
+    private final int[] kinds;
+    private final KeyFrameTrack[] tracks;
+    private final Map<String, Integer> handles;
+    private final List<String> idsView;
+
+    private Layout(PersistentArray<Entry> all, int count) {
+      this.entries = new Entry[count];
+      this.ids = new String[count];
+      this.kinds = new int[count];
+      this.tracks = new KeyFrameTrack[count];
+      this.handles = new HashMap<>();
+      int index = 0;
+      for (int handle = 0; handle < all.size(); handle++) {
+        Entry entry = all.get(handle);
+        if (entry == null) {
+          continue ;
+        }
+        this.entries[index] = entry;
+        this.ids[index] = entry.id;
+        this.kinds[index] = entry.kind;
+        this.tracks[index] = entry.track;
+        this.handles.put(entry.id, index);
+        index++;
+      }
+      this.idsView = Collections.unmodifiableList(Arrays.asList(this.ids));
+    }
+  }
+
+  // the index of the last frame asked about, replaced as a whole so that threads sharing the
+  // version never see the index of one tick paired with another
+  private static final class HitCache {
+
+    private final int tick;
+    private final HitIndex index;
+
+    private HitCache(int tick, HitIndex index) {
+      this.tick = tick;
+      this.index = index;
+    }
+  }
+}
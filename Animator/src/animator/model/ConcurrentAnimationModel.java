@@ -0,0 +1,582 @@
+package animator.model;
+
+import java.awt.Dimension;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A class that represents a mutable animation that may be read and edited by several threads at
+ * once, such as a render thread, an export thread and the editor. Every method that changes the
+ * model takes the write lock of a {@link StampedLock}, and every method that only reads it takes
+ * the read lock, so any number of readers run together. Sampling a frame first reads without
+ * locking and only takes the read lock if an edit happened while it was reading. Actions passed
+ * to {@link #forEachShape} and {@link #forEachKeyFrame} are run after the lock has been released,
+ * so they may call back into the model. Cursors and snapshots play the versions published by the
+ * model and need no locking, unless a version is handed out while an edit is changing it in place,
+ * which waits for the edit. Listeners are told about an edit once the write lock has been
+ * released, so they may call back into the model, which another thread may have edited again by
+ * then.
+ */
+public class ConcurrentAnimationModel extends AnimationModel {
+
+  private final StampedLock lock;
+  private final List<String> lockedIdsView;
+  // the events of the edit holding the write lock, sent once it has been released
+  private final List<Runnable> pendingEvents;
+
+  /**
+   * No parameter constructor that creates an empty model whose screen has not been set yet.
+   */
+  public ConcurrentAnimationModel() {
+    super();
+    this.lock = new StampedLock();
+    this.lockedIdsView = new LockedIdsView();
+    this.pendingEvents = new ArrayList<>();
+  }
+
+  @Override
+  public void setScreenSize(int left, int top, int width, int height) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.setScreenSize(left, top, width, height);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void addShape(String id, IShape shape) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.addShape(id, shape);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void addCommand(String id, ICommand command) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.addCommand(id, command);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void removeShape(String id) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.removeShape(id);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void removeLastCommand(String id) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.removeLastCommand(id);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void addKeyFrame(String id, IKeyFrame k) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.addKeyFrame(id, k);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void deleteKeyFrame(String id, int tick) {
+    long stamp = this.lock.writeLock();
+    try {
+      super.deleteKeyFrame(id, tick);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public int compactKeyFrames() {
+    long stamp = this.lock.writeLock();
+    try {
+      return super.compactKeyFrames();
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public int simplifyKeyFrames(int pixels, int colors) {
+    long stamp = this.lock.writeLock();
+    try {
+      return super.simplifyKeyFrames(pixels, colors);
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public MemoryReport getMemoryReport() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getMemoryReport();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void undo() {
+    long stamp = this.lock.writeLock();
+    try {
+      super.undo();
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void redo() {
+    long stamp = this.lock.writeLock();
+    try {
+      super.redo();
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void beginEditGroup() {
+    long stamp = this.lock.writeLock();
+    try {
+      super.beginEditGroup();
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void endEditGroup() {
+    long stamp = this.lock.writeLock();
+    try {
+      super.endEditGroup();
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public Dimension getScreenSize() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getScreenSize();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int getTop() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getTop();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int getLeft() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getLeft();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getWidth();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int getHeight() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getHeight();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public IViewOnlyShape getShape(String id) {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getShape(id);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public List<IViewOnlyShape> getShapes() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getShapes();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public List<ICommand> getCommands(String id) {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getCommands(id);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public List<String> getIds() {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getIds();
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Retrieves all unique shape identifiers from model without copying them. The returned list is
+   * a read-only view that reflects later changes to the model and locks the model on every call,
+   * so it is only consistent from one call to the next while no other thread is editing.
+   *
+   * @return an unmodifiable list of the shape identifiers in the order they were added.
+   */
+  @Override
+  public List<String> getIdsView() {
+    return this.lockedIdsView;
+  }
+
+  /**
+   * Retrieves all of the commands for a shape with given ID without copying them. The view is of
+   * the commands held by the version handed out by {@link #freeze()}, which never change, so it
+   * can be read after the lock has been released.
+   *
+   * @param id the identifier of a shape
+   * @return an unmodifiable list of the commands for the given shape.
+   * @throws IllegalArgumentException if ID is invalid.
+   */
+  @Override
+  public List<ICommand> getCommandsView(String id) {
+    long stamp = this.lock.readLock();
+    try {
+      CompiledAnimation version = takeLatestVersion();
+      if (version == null) {
+        // publishing a version in place of the closed one needs the write lock
+        stamp = toWriteLock(stamp);
+        version = super.freeze();
+      }
+      return Collections.unmodifiableList(version.getCommandList(getHandle(id)));
+    }
+    finally {
+      this.lock.unlock(stamp);
+    }
+  }
+
+  @Override
+  public void forEachShape(BiConsumer<String, IViewOnlyShape> action) {
+    List<String> ids = new ArrayList<>();
+    List<IViewOnlyShape> shapes = new ArrayList<>();
+    long stamp = this.lock.readLock();
+    try {
+      super.forEachShape((id, shape) -> {
+        ids.add(id);
+        shapes.add(shape);
+      });
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+    for (int i = 0; i < ids.size(); i++) {
+      action.accept(ids.get(i), shapes.get(i));
+    }
+  }
+
+  @Override
+  public void forEachKeyFrame(String id, KeyFrameConsumer action) {
+    KeyFrameTrack track;
+    long stamp = this.lock.readLock();
+    try {
+      CompiledAnimation version = takeLatestVersion();
+      if (version == null) {
+        stamp = toWriteLock(stamp);
+        version = super.freeze();
+      }
+      // a track is never changed once a version holding it has been handed out
+      track = version.getTrack(getHandle(id));
+    }
+    finally {
+      this.lock.unlock(stamp);
+    }
+    for (int i = 0; i < track.size(); i++) {
+      action.accept(track.getTick(i), track.getX(i), track.getY(i), track.getWidth(i),
+              track.getHeight(i), track.getRed(i), track.getGreen(i), track.getBlue(i));
+    }
+  }
+
+  @Override
+  public void forEachKeyFrame(String id, int groups, KeyFrameConsumer action) {
+    KeyFrameTrack track;
+    long stamp = this.lock.readLock();
+    try {
+      CompiledAnimation version = takeLatestVersion();
+      if (version == null) {
+        stamp = toWriteLock(stamp);
+        version = super.freeze();
+      }
+      track = version.getTrack(getHandle(id));
+    }
+    finally {
+      this.lock.unlock(stamp);
+    }
+    track.forEachNeeded(groups, action);
+  }
+
+  @Override
+  public int getFinalTick() {
+    long stamp = this.lock.readLock();
+    try {
+      // working out the final tick again stores it, which needs the write lock
+      if (this.finalTickDirty) {
+        stamp = toWriteLock(stamp);
+      }
+      return super.getFinalTick();
+    }
+    finally {
+      this.lock.unlock(stamp);
+    }
+  }
+
+  @Override
+  public List<IKeyFrame> getKeyFrames(String id) {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getKeyFrames(id);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Retrieves the states of all mutable shapes at given tick. Unlike {@link AnimationModel}, the
+   * states are not stored back into the model, so this method only takes the read lock and any
+   * number of threads may ask for states at once.
+   *
+   * @param tick integer representing which tick the shapes should be set to.
+   * @return a list of mutable shapes representing all of the shapes at the chosen tick.
+   */
+  @Override
+  public List<IShape> getShapesAtTick(int tick) {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getShapesAtTick(tick, false);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Writes the states of all visible shapes at given tick into a frame buffer, replacing its
+   * previous contents. The frame is first read without locking. If an edit happened meanwhile,
+   * the frame may be inconsistent or the read may even fail, so it is thrown away and read again
+   * under the read lock.
+   *
+   * @param tick integer representing which tick the shapes should be set to.
+   * @param out the frame buffer that receives the shapes in drawing order.
+   * @throws IllegalArgumentException if the frame buffer is null.
+   */
+  @Override
+  public void sampleInto(int tick, FrameBuffer out) {
+    if (out == null) {
+      throw new IllegalArgumentException("Frame buffer cannot be null");
+    }
+    long stamp = this.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        super.sampleInto(tick, out);
+      }
+      catch (RuntimeException e) {
+        // the lists may have been changed halfway through reading them
+        stamp = 0;
+      }
+      if (stamp != 0 && this.lock.validate(stamp)) {
+        return ;
+      }
+    }
+    stamp = this.lock.readLock();
+    try {
+      super.sampleInto(tick, out);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Retrieves an immutable snapshot of the animation as it is now. The latest version is handed
+   * out without locking, unless an edit is changing it in place, in which case the version that
+   * the edit publishes is handed out once it is done. If a failed edit left the latest version
+   * closed, a new one is published under the write lock, so readers never publish versions.
+   *
+   * @return a compiled snapshot of the animation.
+   */
+  @Override
+  public CompiledAnimation freeze() {
+    CompiledAnimation version = takeLatestVersion();
+    if (version != null) {
+      return version;
+    }
+    long stamp = this.lock.writeLock();
+    try {
+      return super.freeze();
+    }
+    finally {
+      unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public String getIdOfTopShape(int tick, int x, int y) {
+    long stamp = this.lock.readLock();
+    try {
+      return super.getIdOfTopShape(tick, x, y);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public List<String> shapesActiveBetween(int startTick, int endTick) {
+    long stamp = this.lock.readLock();
+    try {
+      return super.shapesActiveBetween(startTick, endTick);
+    }
+    finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  protected void fireShapeAdded(String id) {
+    this.pendingEvents.add(() -> super.fireShapeAdded(id));
+  }
+
+  @Override
+  protected void fireShapeRemoved(String id) {
+    this.pendingEvents.add(() -> super.fireShapeRemoved(id));
+  }
+
+  @Override
+  protected void fireKeyFramesChanged(String id, int startTick, int endTick) {
+    this.pendingEvents.add(() -> super.fireKeyFramesChanged(id, startTick, endTick));
+  }
+
+  // releases the write lock, then tells the listeners about the edits made while it was held
+  private void unlockWrite(long stamp) {
+    if (this.pendingEvents.isEmpty()) {
+      this.lock.unlockWrite(stamp);
+      return ;
+    }
+    List<Runnable> events = new ArrayList<>(this.pendingEvents);
+    this.pendingEvents.clear();
+    this.lock.unlockWrite(stamp);
+    for (Runnable event : events) {
+      event.run();
+    }
+  }
+
+  // turns a read lock into the write lock, waiting for the other readers if it has to
+  private long toWriteLock(long stamp) {
+    long writeStamp = this.lock.tryConvertToWriteLock(stamp);
+    if (writeStamp == 0) {
+      this.lock.unlockRead(stamp);
+      writeStamp = this.lock.writeLock();
+    }
+    return writeStamp;
+  }
+
+  // a read-only view of the identifiers that locks the model on every call
+  private final class LockedIdsView extends AbstractList<String> {
+
+    @Override
+    public String get(int index) {
+      long stamp = lock.readLock();
+      try {
+        return getLatestVersion().getIdsView().get(index);
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    @Override
+    public int size() {
+      long stamp = lock.readLock();
+      try {
+        return names.size() - removed;
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package animator.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class representing the edits that can be undone and redone on a model. Every edit changes a
+ * single shape and is recorded as an operation that knows how to take itself back and make itself
+ * again, holding only what the edit changed, such as the KeyFrame it added or the one it replaced.
+ * The history therefore grows with the number of edits and never with the size of the model, and
+ * undoing or redoing an edit costs about as much as making it did. Edits made while a group is
+ * open, such as the edits of a bulk operation, are undone and redone together as a single entry.
+ */
+final class EditHistory {
+
+  private final List<List<Edit>> undoable;
+  private final List<List<Edit>> redoable;
+  private List<Edit> group;
+  private int depth;
+
+  /**
+   * A constructor that creates an empty history.
+   */
+  EditHistory() {
+    this.undoable = new ArrayList<>();
+    this.redoable = new ArrayList<>();
+    this.group = null;
+    this.depth = 0;
+  }
+
+  /**
+   * Records an edit that has just been made. Recording an edit means the edits that were undone
+   * can no longer be redone.
+   *
+   * @param edit the edit.
+   */
+  void record(Edit edit) {
+    this.redoable.clear();
+    if (this.group != null) {
+      this.group.add(edit);
+    }
+    else {
+      this.undoable.add(Collections.singletonList(edit));
+    }
+  }
+
+  /**
+   * Opens a group of edits. Groups may be nested, and only closing the outermost one ends the
+   * group.
+   */
+  void begin() {
+    if (this.depth == 0) {
+      this.group = new ArrayList<>();
+    }
+    this.depth++;
+  }
+
+  /**
+   * Closes a group of edits.
+   *
+   * @throws IllegalStateException if no group is open.
+   */
+  void end() {
+    if (this.depth == 0) {
+      throw new IllegalStateException("No group of edits is open.");
+    }
+    this.depth--;
+    if (this.depth == 0) {
+      if (!this.group.isEmpty()) {
+        this.undoable.add(this.group);
+      }
+      this.group = null;
+    }
+  }
+
+  /**
+   * Undoes the last edit or group of edits that has not been undone, last edit first.
+   *
+   * @throws IllegalStateException if there is nothing to undo or a group is open.
+   */
+  void undo() {
+    List<Edit> edits = move(this.undoable, this.redoable, "There is nothing to undo.");
+    for (int i = edits.size() - 1; i >= 0; i--) {
+      edits.get(i).undo();
+    }
+  }
+
+  /**
+   * Redoes the last edit or group of edits that was undone, first edit first.
+   *
+   * @throws IllegalStateException if there is nothing to redo or a group is open.
+   */
+  void redo() {
+    for (Edit edit : move(this.redoable, this.undoable, "There is nothing to redo.")) {
+      edit.redo();
+    }
+  }
+
+  /**
+   * Forgets every edit.
+   */
+  void clear() {
+    this.undoable.clear();
+    this.redoable.clear();
+  }
+
+  private List<Edit> move(List<List<Edit>> from, List<List<Edit>> to, String message) {
+    if (this.depth > 0) {
+      throw new IllegalStateException("A group of edits is still open.");
+    }
+    if (from.isEmpty()) {
+      throw new IllegalStateException(message);
+    }
+    List<Edit> edits = from.remove(from.size() - 1);
+    to.add(edits);
+    return edits;
+  }
+
+  /**
+   * An edit of a single shape. An edit is only ever undone right after it was made or redone,
+   * and only ever redone right after it was undone, so it always finds the shape as it left it.
+   */
+  interface Edit {
+
+    /**
+     * Takes the edit back.
+     */
+    void undo();
+
+    /**
+     * Makes the edit again after it was taken back.
+     */
+    void redo();
+  }
+}
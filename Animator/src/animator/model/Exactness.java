@@ -0,0 +1,317 @@
+package animator.model;
+
+/**
+ * A class holding the arithmetic that tells exactly whether a segment gives the values that other
+ * segments give at each of its ticks, without sampling the ticks one by one. It rests on two
+ * facts about the values sampled from a segment. When a segment gives its true values rounded
+ * half up, which {@link #isRounded} tells, the values sampled over a range of ticks add up to a
+ * floor sum that takes time logarithmic in the length of the range. And the slopes that round to
+ * a given value at a given tick form an interval, so the slopes that round to the values sampled
+ * at many ticks are the intersection of those intervals, which {@link SlopeBounds} keeps. Every
+ * quantity is kept as a fraction of longs, so no rounding happens, within limits that each method
+ * names.
+ */
+final class Exactness {
+
+  /**
+   * The longest segment whose sums of values are exact in a long.
+   */
+  static final int SUM_LIMIT = 1 << 17;
+
+  /**
+   * The largest change, offset or tolerance whose sums of values are exact in a long.
+   */
+  static final int CHANGE_LIMIT = 1 << 20;
+
+  // the bound on the rounding error of the original rule, as a multiple of change / period
+  private static final int FLOAT_BITS = 21;
+
+  private Exactness() {
+  }
+
+  /**
+   * Checks whether the original rule gives the true value of a segment rounded half up at every
+   * tick, as every compiled slope that is not {@link Interpolation#INEXACT} does. The original
+   * rule misses the true value by less than two float roundings, so it rounds the same way unless
+   * the true value is within that of a half, which it never is closer than gcd / (2 * period)
+   * unless it is exactly a half. At those ticks the original rule rounds up when it is exact,
+   * which it is for a period that is a power of two, so only the other periods have those few
+   * ticks checked.
+   *
+   * @param period the length of the segment in ticks, which must be positive.
+   * @param change the difference between the values at the end and the start of the segment.
+   * @return whether the original rule rounds the true value half up at every tick.
+   */
+  static boolean isRounded(int period, int change) {
+    if (change == 0) {
+      return true;
+    }
+    if (change == Integer.MIN_VALUE) {
+      return false;
+    }
+    int gcd = Interpolation.gcd(Math.abs(change), period);
+    if ((long) period * Math.abs(change) > ((long) gcd << FLOAT_BITS)) {
+      return false;
+    }
+    boolean halves = Integer.numberOfTrailingZeros(change)
+            < Integer.numberOfTrailingZeros(period);
+    if (!halves || (period & (period - 1)) == 0) {
+      return true;
+    }
+    // the ticks where change * elapsed / period is a half are one step apart
+    int step = period / gcd;
+    int first = (int) ((long) (period / 2 / gcd)
+            * inverse(Math.floorMod(change / gcd, step), step) % step);
+    for (int elapsed = first; elapsed <= period; elapsed += step) {
+      // the true value here is a half, which rounds up
+      long rounded = Math.floorDiv(2L * change * elapsed + period, 2L * period);
+      if (Interpolation.getPointAt(elapsed, period, 0, change) != rounded) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds up the true values of an attribute rounded half up at consecutive ticks of a segment,
+   * without visiting the ticks one by one. This is the sum of the values that sampling gives
+   * whenever the segment rounds its true values half up, which {@link #isRounded} tells. The sum
+   * is exact while the period is at most {@link #SUM_LIMIT}, the change at most
+   * {@link #CHANGE_LIMIT} in size and the ticks within an int.
+   *
+   * @param elapsed the number of ticks from the start of the segment to the first tick.
+   * @param count the number of ticks.
+   * @param period the length of the segment in ticks, which must be positive.
+   * @param change the difference between the values at the end and the start of the segment.
+   * @return the sum of the rounded changes from the value at the start of the segment.
+   */
+  static long sumOfPointsAt(int elapsed, int count, int period, long change) {
+    // rounding half up is change * elapsed / period + 1 / 2 rounded down
+    return floorSum(count, 2L * period, 2 * change, 2 * change * elapsed + period);
+  }
+
+  /**
+   * Adds up (a * i + b) / m rounded down for i from 0 to n - 1, by swapping the roles of a and m
+   * as the Euclidean algorithm does. Negative values of a and b are first moved into the range
+   * from 0 to m. Every value worked out along the way stays within a long while (a mod m) * n + b
+   * does, and n * n * (a / m) and n * (b / m) do.
+   *
+   * @param n the number of terms, which must not be negative.
+   * @param m the divisor, which must be positive.
+   * @param a the step of the numerator from one term to the next.
+   * @param b the numerator of the first term.
+   * @return the sum of the terms.
+   */
+  static long floorSum(long n, long m, long a, long b) {
+    long sum = 0;
+    if (a < 0) {
+      long reduced = Math.floorMod(a, m);
+      sum -= n * (n - 1) / 2 * ((reduced - a) / m);
+      a = reduced;
+    }
+    if (b < 0) {
+      long reduced = Math.floorMod(b, m);
+      sum -= n * ((reduced - b) / m);
+      b = reduced;
+    }
+    while (true) {
+      if (a >= m) {
+        sum += n * (n - 1) / 2 * (a / m);
+        a %= m;
+      }
+      if (b >= m) {
+        sum += n * (b / m);
+        b %= m;
+      }
+      long top = a * n + b;
+      if (top < m) {
+        return sum;
+      }
+      n = top / m;
+      b = top % m;
+      long swap = m;
+      m = a;
+      a = swap;
+    }
+  }
+
+  /**
+   * Checks whether the values of two segments are small enough for {@link #staysWithin} to
+   * compare them exactly.
+   *
+   * @param period the length of the first segment in ticks.
+   * @param change the change of the attribute over the first segment.
+   * @param offset the value at the start of the first segment less that at the start of the
+   *               second.
+   * @param segmentPeriod the length of the second segment in ticks.
+   * @param segmentChange the change of the attribute over the second segment.
+   * @param tolerance the most that the sampled values may differ by.
+   * @return whether both segments are long enough to have ticks and within the limits.
+   */
+  static boolean canCompare(int period, long change, long offset, int segmentPeriod,
+                            long segmentChange, int tolerance) {
+    return segmentPeriod > 0 && period >= segmentPeriod && period <= SUM_LIMIT
+            && Math.abs(change) <= CHANGE_LIMIT && Math.abs(segmentChange) <= CHANGE_LIMIT
+            && Math.abs(offset) <= CHANGE_LIMIT && tolerance <= CHANGE_LIMIT;
+  }
+
+  /**
+   * Checks whether two segments that both give their true values rounded half up keep one
+   * attribute within a tolerance of each other at every tick of a range starting at the start of
+   * the second. The difference of the true values is a straight line, so the sampled values can
+   * only be too far apart at the ends of the range, where the true values are more than the
+   * tolerance apart. There a sampled value is within a half of its true value, so the sampled
+   * values are the tolerance or one more apart, and they are all the tolerance apart only if they
+   * add up to that. The values must pass {@link #canCompare}.
+   *
+   * @param period the length of the first segment in ticks.
+   * @param change the change of the attribute over the first segment.
+   * @param offset the value at the start of the first segment less that at the start of the
+   *               second.
+   * @param lead the number of ticks from the start of the first segment to that of the second.
+   * @param segmentPeriod the length of the second segment in ticks.
+   * @param segmentChange the change of the attribute over the second segment.
+   * @param length the number of ticks of the range after its first.
+   * @param tolerance the most that the sampled values may differ by.
+   * @return whether the sampled values are within the tolerance at every tick of the range.
+   */
+  static boolean staysWithin(int period, long change, long offset, int lead, int segmentPeriod,
+                             long segmentChange, int length, int tolerance) {
+    // the true values differ by (base + rate * elapsed) / scale, elapsed counting from the start
+    // of the second segment
+    long scale = (long) period * segmentPeriod;
+    long base = offset * scale + change * segmentPeriod * lead;
+    long rate = change * segmentPeriod - segmentChange * period;
+    for (int side = -1; side <= 1; side += 2) {
+      long near = side * base;
+      long slant = side * rate;
+      // beyond the tolerance plus one the sampled values are too far apart as well
+      if (Math.max(near, near + slant * length) >= (tolerance + 1L) * scale) {
+        return false;
+      }
+      // the ticks where the true values are more than the tolerance apart on this side
+      long threshold = tolerance * scale - near;
+      long low = 0;
+      long high = length;
+      if (slant > 0) {
+        low = Math.max(low, Math.floorDiv(threshold, slant) + 1);
+      }
+      else if (slant < 0) {
+        high = Math.min(high, -Math.floorDiv(threshold, -slant) - 1);
+      }
+      else if (threshold >= 0) {
+        continue;
+      }
+      if (high < low) {
+        continue;
+      }
+      int count = (int) (high - low + 1);
+      if (side * (count * offset
+              + sumOfPointsAt((int) (lead + low), count, period, change)
+              - sumOfPointsAt((int) low, count, segmentPeriod, segmentChange))
+              != (long) tolerance * count) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // finds the inverse of a modulo m, where the two have no common factor
+  private static int inverse(int a, int m) {
+    int inverse = 0;
+    int next = 1;
+    int rest = m;
+    int nextRest = a;
+    while (nextRest != 0) {
+      int quotient = rest / nextRest;
+      int swap = inverse - quotient * next;
+      inverse = next;
+      next = swap;
+      swap = rest - quotient * nextRest;
+      rest = nextRest;
+      nextRest = swap;
+    }
+    return inverse < 0 ? inverse + m : inverse;
+  }
+
+  /**
+   * The slopes that a segment from a fixed start may have for each attribute, if it is to give
+   * the values sampled at every tick seen so far. A value sampled at a tick allows the slopes
+   * whose true value there rounds half up to it, which form an interval, so the slopes allowed by
+   * many ticks are the tightest bounds of those intervals. Each bound is kept as a fraction, so a
+   * segment is checked against them exactly, while every tick and offset is at most
+   * {@link #LIMIT}.
+   */
+  static final class SlopeBounds {
+
+    /**
+     * The largest number of ticks or change that keeps the bounds exact in a long.
+     */
+    static final long LIMIT = 1 << 23;
+
+    // the lower bound of each attribute followed by the upper bound, each as a numerator and a
+    // positive denominator, where a denominator of 0 stands for no bound
+    private final long[] bounds;
+
+    /**
+     * A constructor that creates bounds that allow every slope.
+     *
+     * @param attributes the number of attributes to keep bounds for.
+     */
+    SlopeBounds(int attributes) {
+      this.bounds = new long[4 * attributes];
+      clear();
+    }
+
+    /**
+     * Widens the bounds of every attribute to allow every slope again.
+     */
+    void clear() {
+      for (int at = 0; at < this.bounds.length; at += 4) {
+        this.bounds[at] = -1;
+        this.bounds[at + 1] = 0;
+        this.bounds[at + 2] = 1;
+        this.bounds[at + 3] = 0;
+      }
+    }
+
+    /**
+     * Narrows the bounds of one attribute to the slopes whose true value rounds half up to a
+     * sampled value.
+     *
+     * @param attribute the number of the attribute.
+     * @param offset the sampled value less the value at the start, at most {@link #LIMIT} in size.
+     * @param elapsed the number of ticks since the start, from 1 to {@link #LIMIT}.
+     */
+    void narrow(int attribute, long offset, long elapsed) {
+      // the true value must round to the sampled one: 2 * offset - 1 <= 2 * slope * elapsed <
+      // 2 * offset + 1
+      int at = 4 * attribute;
+      long lower = 2 * offset - 1;
+      long upper = 2 * offset + 1;
+      long denominator = 2 * elapsed;
+      if (lower * this.bounds[at + 1] > this.bounds[at] * denominator) {
+        this.bounds[at] = lower;
+        this.bounds[at + 1] = denominator;
+      }
+      if (upper * this.bounds[at + 3] < this.bounds[at + 2] * denominator) {
+        this.bounds[at + 2] = upper;
+        this.bounds[at + 3] = denominator;
+      }
+    }
+
+    /**
+     * Checks whether the bounds of one attribute allow a slope.
+     *
+     * @param attribute the number of the attribute.
+     * @param change the numerator of the slope, at most {@link #LIMIT} in size.
+     * @param period the denominator of the slope, from 1 to {@link #LIMIT}.
+     * @return whether the slope is within the bounds.
+     */
+    boolean allows(int attribute, long change, long period) {
+      int at = 4 * attribute;
+      return change * this.bounds[at + 1] >= this.bounds[at] * period
+              && change * this.bounds[at + 3] < this.bounds[at + 2] * period;
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package animator.model;
+
+import java.util.Arrays;
+
+/**
+ * A public class representing the state of every visible shape of an animation at a single tick.
+ * The states are stored in parallel arrays of primitive values in the order the shapes should be
+ * drawn. A buffer is meant to be reused from frame to frame, so sampling into it does not create
+ * any objects once it has grown large enough. Each shape is also marked with whether it may look
+ * different from the frame that was in the buffer before, so that a renderer can skip the shapes
+ * that held still.
+ */
+public final class FrameBuffer {
+
+  /**
+   * The kind of a shape that is drawn as a rectangle.
+   */
+  public static final int RECTANGLE = 0;
+
+  /**
+   * The kind of a shape that is drawn as an oval.
+   */
+  public static final int OVAL = 1;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int size;
+  private String[] ids;
+  private int[] kinds;
+  private int[] xs;
+  private int[] ys;
+  private int[] widths;
+  private int[] heights;
+  private int[] colors;
+  private boolean[] changed;
+  private int writes;
+
+  /**
+   * A public constructor that creates an empty frame buffer.
+   */
+  public FrameBuffer() {
+    this.size = 0;
+    this.ids = new String[INITIAL_CAPACITY];
+    this.kinds = new int[INITIAL_CAPACITY];
+    this.xs = new int[INITIAL_CAPACITY];
+    this.ys = new int[INITIAL_CAPACITY];
+    this.widths = new int[INITIAL_CAPACITY];
+    this.heights = new int[INITIAL_CAPACITY];
+    this.colors = new int[INITIAL_CAPACITY];
+    this.changed = new boolean[INITIAL_CAPACITY];
+    this.writes = 0;
+  }
+
+  /**
+   * Retrieves the number of shapes in this frame.
+   *
+   * @return an integer representing the number of shapes in this frame.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Retrieves the identifier of the shape at the given position of this frame.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return the unique identifier of the shape.
+   */
+  public String getId(int index) {
+    checkIndex(index);
+    return this.ids[index];
+  }
+
+  /**
+   * Retrieves the kind of the shape at the given position of this frame.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return either {@link #RECTANGLE} or {@link #OVAL}.
+   */
+  public int getKind(int index) {
+    checkIndex(index);
+    return this.kinds[index];
+  }
+
+  /**
+   * Retrieves the x position of the shape at the given position of this frame.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return an integer representing the x position of the shape.
+   */
+  public int getX(int index) {
+    checkIndex(index);
+    return this.xs[index];
+  }
+
+  /**
+   * Retrieves the y position of the shape at the given position of this frame.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return an integer representing the y position of the shape.
+   */
+  public int getY(int index) {
+    checkIndex(index);
+    return this.ys[index];
+  }
+
+  /**
+   * Retrieves the width of the shape at the given position of this frame.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return an integer representing the width of the shape.
+   */
+  public int getWidth(int index) {
+    checkIndex(index);
+    return this.widths[index];
+  }
+
+  /**
+   * Retrieves the height of the shape at the given position of this frame.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return an integer representing the height of the shape.
+   */
+  public int getHeight(int index) {
+    checkIndex(index);
+    return this.heights[index];
+  }
+
+  /**
+   * Retrieves the color of the shape at the given position of this frame, packed as 0xRRGGBB.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return an integer representing the packed RGB color of the shape.
+   */
+  public int getColor(int index) {
+    checkIndex(index);
+    return this.colors[index];
+  }
+
+  /**
+   * Checks whether the shape at the given position of this frame may look different from the
+   * shape at the same position of the frame that was in this buffer before. Only a
+   * {@link PlaybackCursor} that samples into the same buffer frame after frame finds shapes that
+   * held still, and every other way of sampling marks every shape as changed.
+   *
+   * @param index the position of the shape in drawing order.
+   * @return false if the shape is known to be drawn exactly as it was in the last frame.
+   */
+  public boolean isChanged(int index) {
+    checkIndex(index);
+    return this.changed[index];
+  }
+
+  /**
+   * Removes every shape from this frame while keeping its storage.
+   */
+  void clear() {
+    this.size = 0;
+    this.writes++;
+  }
+
+  /**
+   * Appends the state of a shape to the end of this frame.
+   *
+   * @param id the unique identifier of the shape.
+   * @param kind the kind of the shape.
+   * @param x the x position of the shape.
+   * @param y the y position of the shape.
+   * @param width the width of the shape.
+   * @param height the height of the shape.
+   * @param red the red value of the shape.
+   * @param green the green value of the shape.
+   * @param blue the blue value of the shape.
+   */
+  void add(String id, int kind, int x, int y, int width, int height, int red, int green,
+           int blue) {
+    if (this.size == this.ids.length) {
+      grow();
+    }
+    this.ids[this.size] = id;
+    this.kinds[this.size] = kind;
+    this.xs[this.size] = x;
+    this.ys[this.size] = y;
+    this.widths[this.size] = width;
+    this.heights[this.size] = height;
+    this.colors[this.size] = (red << 16) | (green << 8) | blue;
+    this.changed[this.size] = true;
+    this.size++;
+    this.writes++;
+  }
+
+  /**
+   * Sets the number of shapes in this frame, growing its storage if needed. The states of any
+   * shapes that were not in the frame before must be written through the backing arrays.
+   *
+   * @param size the new number of shapes.
+   */
+  void resize(int size) {
+    while (this.ids.length < size) {
+      grow();
+    }
+    this.size = size;
+    this.writes++;
+  }
+
+  /**
+   * Counts the writes made to this frame, so that a caller can tell whether anything else wrote
+   * to it since it last did.
+   *
+   * @return the number of writes so far.
+   */
+  int getWrites() {
+    return this.writes;
+  }
+
+  // the backing arrays, for callers that write whole columns at once after resize
+  String[] getIds() {
+    return this.ids;
+  }
+
+  int[] getKinds() {
+    return this.kinds;
+  }
+
+  int[] getXs() {
+    return this.xs;
+  }
+
+  int[] getYs() {
+    return this.ys;
+  }
+
+  int[] getWidths() {
+    return this.widths;
+  }
+
+  int[] getHeights() {
+    return this.heights;
+  }
+
+  int[] getColors() {
+    return this.colors;
+  }
+
+  boolean[] getChanged() {
+    return this.changed;
+  }
+
+  /**
+   * Retrieves the kind a shape should be drawn as.
+   *
+   * @param shape the shape to be drawn.
+   * @return either {@link #RECTANGLE} or {@link #OVAL}.
+   */
+  static int kindOf(IViewOnlyShape shape) {
+    if (shape.toString().equals("oval")) {
+      return OVAL;
+    }
+    return RECTANGLE;
+  }
+
+  private void grow() {
+    int newCapacity = this.ids.length * 2;
+    this.ids = Arrays.copyOf(this.ids, newCapacity);
+    this.kinds = Arrays.copyOf(this.kinds, newCapacity);
+    this.xs = Arrays.copyOf(this.xs, newCapacity);
+    this.ys = Arrays.copyOf(this.ys, newCapacity);
+    this.widths = Arrays.copyOf(this.widths, newCapacity);
+    this.heights = Arrays.copyOf(this.heights, newCapacity);
+    this.colors = Arrays.copyOf(this.colors, newCapacity);
+    this.changed = Arrays.copyOf(this.changed, newCapacity);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IllegalArgumentException("Invalid index: " + index);
+    }
+  }
+}
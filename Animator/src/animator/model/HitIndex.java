@@ -0,0 +1,171 @@
+package animator.model;
+
+import java.util.Arrays;
+
+/**
+ * A class representing a uniform grid over the shapes of one frame, used to find the topmost
+ * shape under a point without testing every shape. The bounding box of every shape is recorded in
+ * each grid cell it overlaps, in drawing order. A query only looks at the shapes recorded in the
+ * cell under the point, plus the few shapes too large to be worth recording cell by cell. The
+ * bounds follow {@link IViewOnlyShape#inShape}: a rectangle spans its width and height, an oval
+ * spans twice its width and height, and points on the edge are outside.
+ */
+final class HitIndex {
+
+  private static final int MAX_CELLS_PER_SIDE = 256;
+  private static final int MAX_CELLS_PER_SHAPE = 64;
+
+  private final FrameBuffer frame;
+  private final long[] lefts;
+  private final long[] tops;
+  private final long[] rights;
+  private final long[] bottoms;
+  private long gridLeft;
+  private long gridTop;
+  private long cellWidth;
+  private long cellHeight;
+  private int columns;
+  private int rows;
+  private int[] cellStarts;
+  private int[] cellShapes;
+  private int[] oversized;
+  private int oversizedCount;
+
+  /**
+   * A constructor that indexes every shape of a frame.
+   *
+   * @param frame the frame to be indexed, which must not change while this index is in use.
+   */
+  HitIndex(FrameBuffer frame) {
+    int size = frame.size();
+    this.frame = frame;
+    this.lefts = new long[size];
+    this.tops = new long[size];
+    this.rights = new long[size];
+    this.bottoms = new long[size];
+    this.oversized = new int[size];
+    this.oversizedCount = 0;
+    this.columns = 0;
+    this.rows = 0;
+    if (size == 0) {
+      return ;
+    }
+
+    long minX = Long.MAX_VALUE;
+    long minY = Long.MAX_VALUE;
+    long maxX = Long.MIN_VALUE;
+    long maxY = Long.MIN_VALUE;
+    for (int i = 0; i < size; i++) {
+      int scale = frame.getKind(i) == FrameBuffer.OVAL ? 2 : 1;
+      this.lefts[i] = frame.getX(i);
+      this.tops[i] = frame.getY(i);
+      this.rights[i] = this.lefts[i] + (long) scale * frame.getWidth(i);
+      this.bottoms[i] = this.tops[i] + (long) scale * frame.getHeight(i);
+      minX = Math.min(minX, this.lefts[i]);
+      minY = Math.min(minY, this.tops[i]);
+      maxX = Math.max(maxX, this.rights[i]);
+      maxY = Math.max(maxY, this.bottoms[i]);
+    }
+    int side = (int) Math.min(MAX_CELLS_PER_SIDE, Math.max(1, Math.ceil(Math.sqrt(size))));
+    this.gridLeft = minX;
+    this.gridTop = minY;
+    this.columns = side;
+    this.rows = side;
+    this.cellWidth = (maxX - minX) / side + 1;
+    this.cellHeight = (maxY - minY) / side + 1;
+
+    // count the shapes of each cell, then lay the cells out one after another in drawing order
+    this.cellStarts = new int[side * side + 1];
+    for (int i = 0; i < size; i++) {
+      if (!isOversized(i)) {
+        for (int row = rowOf(this.tops[i]); row <= rowOf(this.bottoms[i]); row++) {
+          for (int column = columnOf(this.lefts[i]); column <= columnOf(this.rights[i]);
+               column++) {
+            this.cellStarts[row * side + column + 1]++;
+          }
+        }
+      }
+    }
+    for (int cell = 0; cell < side * side; cell++) {
+      this.cellStarts[cell + 1] += this.cellStarts[cell];
+    }
+    int[] next = Arrays.copyOf(this.cellStarts, side * side);
+    this.cellShapes = new int[this.cellStarts[side * side]];
+    for (int i = 0; i < size; i++) {
+      if (isOversized(i)) {
+        this.oversized[this.oversizedCount++] = i;
+        continue ;
+      }
+      for (int row = rowOf(this.tops[i]); row <= rowOf(this.bottoms[i]); row++) {
+        for (int column = columnOf(this.lefts[i]); column <= columnOf(this.rights[i]);
+             column++) {
+          this.cellShapes[next[row * side + column]++] = i;
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the topmost shape of the frame that contains the given point.
+   *
+   * @param x the x coordinate of the point.
+   * @param y the y coordinate of the point.
+   * @return the position of the shape in the frame, or -1 if no shape contains the point.
+   */
+  int getTopShapeAt(int x, int y) {
+    int top = -1;
+    for (int i = this.oversizedCount - 1; i >= 0; i--) {
+      if (contains(this.oversized[i], x, y)) {
+        top = this.oversized[i];
+        break;
+      }
+    }
+    if (this.columns == 0 || x < this.gridLeft || y < this.gridTop) {
+      return top;
+    }
+    int column = columnOf(x);
+    int row = rowOf(y);
+    if (column >= this.columns || row >= this.rows) {
+      return top;
+    }
+    int cell = row * this.columns + column;
+    for (int i = this.cellStarts[cell + 1] - 1; i >= this.cellStarts[cell]; i--) {
+      int shape = this.cellShapes[i];
+      if (shape <= top) {
+        break;
+      }
+      if (contains(shape, x, y)) {
+        return shape;
+      }
+    }
+    return top;
+  }
+
+  /**
+   * Retrieves the frame this index was built from.
+   *
+   * @return the indexed frame.
+   */
+  FrameBuffer getFrame() {
+    return this.frame;
+  }
+
+  private boolean contains(int shape, int x, int y) {
+    return x > this.lefts[shape] && x < this.rights[shape]
+            && y > this.tops[shape] && y < this.bottoms[shape];
+  }
+
+  private boolean isOversized(int shape) {
+    long cells = (long) (columnOf(this.rights[shape]) - columnOf(this.lefts[shape]) + 1)
+            * (rowOf(this.bottoms[shape]) - rowOf(this.tops[shape]) + 1);
+    return cells > MAX_CELLS_PER_SHAPE;
+  }
+
+  private int columnOf(long x) {
+    return (int) ((x - this.gridLeft) / this.cellWidth);
+  }
+
+  private int rowOf(long y) {
+    return (int) ((y - this.gridTop) / this.cellHeight);
+  }
+}
@@ -70,4 +70,63 @@ public interface IAnimationModel extends IViewOnlyAnimationModel {
    */
   void deleteKeyFrame(String id, int tick);
 
+  /**
+   * Removes every KeyFrame that can be left out without changing how any shape looks at any tick,
+   * such as one in the middle of a straight motion at constant speed or of a pause. The removals
+   * are undone and redone together as a single edit.
+   *
+   * @return the number of KeyFrames removed.
+   */
+  int compactKeyFrames();
+
+  /**
+   * Removes KeyFrames as long as no shape looks different at any tick by more than the given
+   * tolerances, which shrinks large animations for previewing at the cost of some accuracy. With
+   * both tolerances 0 nothing changes at any tick. The removals are undone and redone together as
+   * a single edit.
+   *
+   * @param pixels the most that the position or size of a shape may change, in pixels.
+   * @param colors the most that each of the red, green and blue values of a shape may change.
+   * @return the number of KeyFrames removed.
+   * @throws IllegalArgumentException if either tolerance is negative.
+   */
+  int simplifyKeyFrames(int pixels, int colors);
+
+  /**
+   * Reports how much memory the KeyFrames and commands of every shape take, and how much is saved
+   * by keeping the compiled slopes of segments that are alike only once for every shape that uses
+   * them.
+   *
+   * @return a report on the memory taken by the KeyFrames and commands.
+   */
+  MemoryReport getMemoryReport();
+
+  /**
+   * Undoes the last edit of a shape, or the last group of edits, that has not been undone yet.
+   *
+   * @throws IllegalStateException if there is nothing to undo or a group of edits is open.
+   */
+  void undo();
+
+  /**
+   * Redoes the last edit, or group of edits, that was undone. Making any other edit means the
+   * edits that were undone can no longer be redone.
+   *
+   * @throws IllegalStateException if there is nothing to redo or a group of edits is open.
+   */
+  void redo();
+
+  /**
+   * Opens a group of edits, such as a bulk operation, that are undone and redone together. Groups
+   * may be nested, in which case only the outermost one counts.
+   */
+  void beginEditGroup();
+
+  /**
+   * Closes the group of edits opened last.
+   *
+   * @throws IllegalStateException if no group of edits is open.
+   */
+  void endEditGroup();
+
 }
@@ -0,0 +1,36 @@
+package animator.model;
+
+/**
+ * A public interface representing an object that is told about changes to a model, such as a view
+ * that caches what it drew or exported. Every event is sent once the model has published the
+ * version that contains the change, so a listener can read that version from
+ * {@link IViewOnlyAnimationModel#freeze()} and only has to redo the work for the shapes and ticks
+ * that were changed.
+ */
+public interface IModelListener {
+
+  /**
+   * Called after a shape has been added to the model, or put back by undoing its removal.
+   *
+   * @param id unique shape identifier.
+   */
+  void shapeAdded(String id);
+
+  /**
+   * Called after a shape has been removed from the model.
+   *
+   * @param id unique shape identifier.
+   */
+  void shapeRemoved(String id);
+
+  /**
+   * Called after the KeyFrames or commands of a shape have changed. The shape looks the same as
+   * before at every tick outside of the given interval.
+   *
+   * @param id unique shape identifier.
+   * @param startTick the first tick at which the shape may look different.
+   * @param endTick the last tick at which the shape may look different.
+   */
+  void keyFramesChanged(String id, int startTick, int endTick);
+
+}
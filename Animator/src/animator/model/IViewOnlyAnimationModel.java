@@ -2,6 +2,7 @@ package animator.model;
 
 import java.awt.Dimension;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 /**
  * An interface that represents a viewable animation, keeping track of shapes and how they are
@@ -10,6 +11,21 @@ import java.util.List;
  */
 public interface IViewOnlyAnimationModel {
 
+  /**
+   * The group of attributes holding the x and y position of a shape.
+   */
+  int POSITION = 1;
+
+  /**
+   * The group of attributes holding the width and height of a shape.
+   */
+  int SIZE = 2;
+
+  /**
+   * The group of attributes holding the red, green and blue values of a shape.
+   */
+  int COLOR = 4;
+
   /**
    * A method that sets the screen size for the animation.
    *
@@ -96,6 +112,59 @@ public interface IViewOnlyAnimationModel {
    */
   List<String> getIds();
 
+  /**
+   * Retrieves all unique shape identifiers from model without copying them. The returned list is
+   * a read-only view that reflects later changes to the model.
+   *
+   * @return an unmodifiable list of the shape identifiers in the order they were added.
+   */
+  List<String> getIdsView();
+
+  /**
+   * Retrieves all of the commands for a shape with given ID without copying them. Commands are
+   * immutable, so the returned read-only view can be shared safely.
+   *
+   * @param id the identifier of a shape
+   * @return an unmodifiable list of the commands for the given shape.
+   *
+   * @throws IllegalArgumentException if ID is invalid.
+   */
+  List<ICommand> getCommandsView(String id);
+
+  /**
+   * Performs an action on every shape of the model, in the order the shapes were added. The
+   * shapes passed to the action are the model's own read-only shapes rather than copies.
+   *
+   * @param action the action to be performed on each identifier and shape.
+   */
+  void forEachShape(BiConsumer<String, IViewOnlyShape> action);
+
+  /**
+   * Performs an action on every KeyFrame of a shape in order of tick, without creating KeyFrame
+   * objects.
+   *
+   * @param id the unique identifier for the shape.
+   * @param action the action to be performed on each KeyFrame.
+   * @throws IllegalArgumentException if ID is invalid.
+   */
+  void forEachKeyFrame(String id, KeyFrameConsumer action);
+
+  /**
+   * Performs an action on the KeyFrames of a shape that some groups of attributes need, in order
+   * of tick, giving a track of just those attributes. KeyFrames at which none of them changes
+   * course are left out, such as one where only the color changes when the position is asked
+   * for, and leaving them out does not change those attributes at any tick. The first and last
+   * KeyFrames are always included. The model keeps every attribute in one track, so the
+   * KeyFrames are chosen from it each time rather than stored for each group.
+   *
+   * @param id the unique identifier for the shape.
+   * @param groups any of {@link #POSITION}, {@link #SIZE} and {@link #COLOR} joined with bitwise
+   *               or.
+   * @param action the action to be performed on each KeyFrame.
+   * @throws IllegalArgumentException if ID is invalid or groups names no group or an unknown one.
+   */
+  void forEachKeyFrame(String id, int groups, KeyFrameConsumer action);
+
   /**
    * Retrieves the final tick of the animation.
    *
@@ -120,6 +189,26 @@ public interface IViewOnlyAnimationModel {
    */
   List<IShape> getShapesAtTick(int tick);
 
+  /**
+   * Writes the states of all visible shapes at given tick into a frame buffer, replacing its
+   * previous contents. Unlike {@link #getShapesAtTick}, this method does not change the model, so
+   * any number of threads may sample it at once as long as no thread is editing it. Reusing one
+   * buffer per thread avoids creating objects for every frame.
+   *
+   * @param tick integer representing which tick the shapes should be set to.
+   * @param out the frame buffer that receives the shapes in drawing order.
+   * @throws IllegalArgumentException if the frame buffer is null.
+   */
+  void sampleInto(int tick, FrameBuffer out);
+
+  /**
+   * Creates a cursor used to play this animation back one tick at a time. The cursor keeps
+   * working if the model is edited while it is in use.
+   *
+   * @return a new cursor positioned before the start of the animation.
+   */
+  PlaybackCursor createCursor();
+
   /**
    * Retrieves the identifier of the top shape at a given point in time.
    *
@@ -131,4 +220,51 @@ public interface IViewOnlyAnimationModel {
    */
   String getIdOfTopShape(int tick, int x, int y);
 
+  /**
+   * Retrieves the identifiers of the shapes that are drawn at some tick of a window of ticks. A
+   * shape is drawn from its first KeyFrame to its last, so a shape with fewer than two KeyFrames
+   * is never drawn.
+   *
+   * @param startTick the first tick of the window.
+   * @param endTick the last tick of the window.
+   * @return the identifiers of the shapes, in the order they are drawn.
+   * @throws IllegalArgumentException if the window ends before it starts.
+   */
+  List<String> shapesActiveBetween(int startTick, int endTick);
+
+  /**
+   * Retrieves an immutable snapshot of the animation as it is now. A model publishes a new
+   * snapshot after every edit, so this method does not copy anything. A snapshot is not affected
+   * by later edits, so views that only play the animation back can share it across threads.
+   *
+   * @return a compiled snapshot of the animation.
+   */
+  CompiledAnimation freeze();
+
+  /**
+   * Retrieves a number that tells apart the versions published by the model, without handing out
+   * the latest one as {@link #freeze()} does. It changes whenever the model publishes a new
+   * version, so a view holding a snapshot only has to take a new one once the number differs from
+   * the one of its snapshot.
+   *
+   * @return the stamp of the latest version.
+   */
+  long getVersionStamp();
+
+  /**
+   * Registers a listener that is told about every later change to the shapes of this animation.
+   *
+   * @param listener the listener to be added.
+   * @throws IllegalArgumentException if listener is null.
+   */
+  void addListener(IModelListener listener);
+
+  /**
+   * Stops telling a listener about changes to this animation. Nothing happens if it was never
+   * added.
+   *
+   * @param listener the listener to be removed.
+   */
+  void removeListener(IModelListener listener);
+
 }
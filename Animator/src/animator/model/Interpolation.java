@@ -0,0 +1,148 @@
+package animator.model;
+
+/**
+ * A class holding the arithmetic used to find the value of an attribute part of the way through a
+ * motion. The original rule divides the elapsed time by the length of the motion in floating point
+ * and rounds the scaled change. Segments that are sampled many times can instead compile a
+ * fixed-point slope once, so that each sample is a single multiply, add and shift. A slope is only
+ * handed out when it gives exactly the same value as the original rule at every tick of the
+ * segment. Otherwise {@link #INEXACT} is returned and the original rule is used for that segment.
+ * Whether a slope is exact is worked out from the length and change of the segment alone, by
+ * bounding how far each rule can stray from the true value, so nothing needs to be remembered.
+ */
+final class Interpolation {
+
+  /**
+   * The slope of a segment whose values cannot be reproduced exactly in fixed point.
+   */
+  static final int INEXACT = Integer.MIN_VALUE;
+
+  private static final int FRACTION_BITS = 16;
+  private static final long HALF = 1L << (FRACTION_BITS - 1);
+  private static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+  private static final int MAX_PERIOD = 1 << 16;
+  private static final int MAX_CHANGE = 1 << 14;
+
+  private Interpolation() {
+  }
+
+  /**
+   * Finds the value of an attribute using the original floating point rule.
+   *
+   * @param elapsed the number of ticks since the start of the segment.
+   * @param period the length of the segment in ticks.
+   * @param initial the value at the start of the segment.
+   * @param fin the value at the end of the segment.
+   * @return the rounded value of the attribute.
+   */
+  static int getPointAt(int elapsed, int period, int initial, int fin) {
+    float timeElapsed = elapsed;
+    float percentElapsed = timeElapsed / period;
+    int change = fin - initial;
+    return (initial  + Math.round(percentElapsed * change));
+  }
+
+  /**
+   * Finds the value of an attribute from a compiled slope.
+   *
+   * @param elapsed the number of ticks since the start of the segment.
+   * @param initial the value at the start of the segment.
+   * @param slope a slope compiled by {@link #slope} that is not {@link #INEXACT}.
+   * @return the rounded value of the attribute.
+   */
+  static int getPointAt(int elapsed, int initial, int slope) {
+    return initial + (int) ((elapsed * (long) slope + HALF) >> FRACTION_BITS);
+  }
+
+  /**
+   * Finds the values of one attribute for many segments at once from compiled slopes that have
+   * been split by {@link #getWholePart} and {@link #getFractionPart}. Splitting the slopes keeps
+   * every product within an int, so the loop only does int arithmetic over parallel arrays and
+   * the JIT compiler can turn it into vector instructions.
+   *
+   * @param tick the tick that the values should reflect.
+   * @param starts the start tick of each segment.
+   * @param initials the value of the attribute at the start of each segment.
+   * @param wholes the whole part of the slope of each segment.
+   * @param fractions the fractional part of the slope of each segment.
+   * @param out the array that receives the values.
+   * @param count the number of segments.
+   */
+  static void getPointsAt(int tick, int[] starts, int[] initials, int[] wholes, int[] fractions,
+                          int[] out, int count) {
+    for (int i = 0; i < count; i++) {
+      int elapsed = tick - starts[i];
+      // the fractional product can use all 32 bits, so it is shifted as an unsigned value
+      out[i] = initials[i] + elapsed * wholes[i]
+              + ((elapsed * fractions[i] + (int) HALF) >>> FRACTION_BITS);
+    }
+  }
+
+  /**
+   * Retrieves the whole part of a compiled slope that is not {@link #INEXACT}.
+   *
+   * @param slope the compiled slope.
+   * @return the slope rounded down to a whole number.
+   */
+  static int getWholePart(int slope) {
+    return slope >> FRACTION_BITS;
+  }
+
+  /**
+   * Retrieves the fractional part of a compiled slope that is not {@link #INEXACT}.
+   *
+   * @param slope the compiled slope.
+   * @return the fractional bits of the slope.
+   */
+  static int getFractionPart(int slope) {
+    return slope & FRACTION_MASK;
+  }
+
+  /**
+   * Compiles the fixed-point slope of a segment.
+   *
+   * @param period the length of the segment in ticks.
+   * @param initial the value at the start of the segment.
+   * @param fin the value at the end of the segment.
+   * @return the slope in units of 2^-16, or {@link #INEXACT} if the original rule must be used.
+   */
+  static int slope(int period, int initial, int fin) {
+    long change = (long) fin - initial;
+    if (change == 0 || period == 0) {
+      return 0;
+    }
+    if (period < 0 || period > MAX_PERIOD || Math.abs(change) >= MAX_CHANGE) {
+      return INEXACT;
+    }
+    // rounding the slope up makes the fixed-point rule round exact halves up like Math.round
+    int slope = (int) Math.floorDiv((change << FRACTION_BITS) + period - 1, period);
+    return matchesOriginal(period, (int) change, slope) ? slope : INEXACT;
+  }
+
+  // checks that the fixed-point rule gives the original rule at every tick of a segment. The true
+  // value at a tick is a multiple of 1 / (2 * period) away from a half, and at least gcd / (2 *
+  // period) unless it is exactly a half. The fixed-point rule overshoots by less than the slope's
+  // rounding, so while that stays under the distance it gives the true value rounded half up,
+  // and so must the original rule
+  private static boolean matchesOriginal(int period, int change, int slope) {
+    long rounding = (long) slope * period - ((long) change << FRACTION_BITS);
+    return rounding * period < ((long) gcd(Math.abs(change), period) << (FRACTION_BITS - 1))
+            && Exactness.isRounded(period, change);
+  }
+
+  /**
+   * Finds the greatest common divisor of two numbers that are not negative.
+   *
+   * @param a the first number.
+   * @param b the second number.
+   * @return the greatest common divisor, which is a if b is 0.
+   */
+  static int gcd(int a, int b) {
+    while (b != 0) {
+      int rest = a % b;
+      a = b;
+      b = rest;
+    }
+    return a;
+  }
+}
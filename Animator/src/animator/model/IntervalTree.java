@@ -0,0 +1,156 @@
+package animator.model;
+
+import java.util.Arrays;
+
+/**
+ * A class representing a centered interval tree over a fixed set of closed intervals of ticks,
+ * used to find every interval that overlaps a window of ticks without testing every interval.
+ * Every node of the tree has a center tick and holds the intervals that contain it, kept both in
+ * order of their starts and in reverse order of their ends. The intervals that end before the
+ * center go to the left child and those that start after it go to the right child. The center of
+ * a node is the median start of its intervals, so no node is empty and the tree has logarithmic
+ * depth, and a query costs O(log n + k) for k intervals found.
+ */
+final class IntervalTree {
+
+  private final int[] starts;
+  private final int[] ends;
+  private final int[] byStart;
+  private final int[] byEnd;
+  private final int[] centers;
+  private final int[] firsts;
+  private final int[] counts;
+  private final int[] lefts;
+  private final int[] rights;
+  private int nodes;
+  private int placed;
+
+  /**
+   * A constructor that indexes the given intervals by their positions in the arrays. An interval
+   * whose start is after its end is empty and is never found.
+   *
+   * @param starts the first tick of every interval.
+   * @param ends the last tick of every interval.
+   */
+  IntervalTree(int[] starts, int[] ends) {
+    this.starts = starts;
+    this.ends = ends;
+    long[] order = new long[starts.length];
+    int size = 0;
+    for (int i = 0; i < starts.length; i++) {
+      if (starts[i] <= ends[i]) {
+        order[size++] = ((long) starts[i] << 32) | i;
+      }
+    }
+    Arrays.sort(order, 0, size);
+    int[] items = new int[size];
+    for (int i = 0; i < size; i++) {
+      items[i] = (int) order[i];
+    }
+    this.byStart = new int[size];
+    this.byEnd = new int[size];
+    this.centers = new int[size];
+    this.firsts = new int[size];
+    this.counts = new int[size];
+    this.lefts = new int[size];
+    this.rights = new int[size];
+    this.nodes = 0;
+    this.placed = 0;
+    build(items, size);
+  }
+
+  /**
+   * Finds every interval that overlaps a window of ticks.
+   *
+   * @param startTick the first tick of the window.
+   * @param endTick the last tick of the window.
+   * @return the positions of the intervals found, in no particular order.
+   */
+  int[] query(int startTick, int endTick) {
+    int[] found = new int[16];
+    int size = 0;
+    int[] stack = new int[64];
+    int top = 0;
+    if (this.nodes > 0) {
+      stack[top++] = 0;
+    }
+    while (top > 0) {
+      int node = stack[--top];
+      int first = this.firsts[node];
+      int last = first + this.counts[node];
+      int center = this.centers[node];
+      if (found.length < size + this.counts[node]) {
+        found = Arrays.copyOf(found, Math.max(found.length * 2, size + this.counts[node]));
+      }
+      if (endTick < center) {
+        // every interval here ends after the window, so those starting in time overlap it
+        for (int i = first; i < last && this.starts[this.byStart[i]] <= endTick; i++) {
+          found[size++] = this.byStart[i];
+        }
+      }
+      else if (startTick > center) {
+        // every interval here starts before the window, so those ending in time overlap it
+        for (int i = first; i < last && this.ends[this.byEnd[i]] >= startTick; i++) {
+          found[size++] = this.byEnd[i];
+        }
+      }
+      else {
+        System.arraycopy(this.byStart, first, found, size, last - first);
+        size += last - first;
+      }
+      if (top + 2 > stack.length) {
+        stack = Arrays.copyOf(stack, stack.length * 2);
+      }
+      if (startTick < center && this.lefts[node] >= 0) {
+        stack[top++] = this.lefts[node];
+      }
+      if (endTick > center && this.rights[node] >= 0) {
+        stack[top++] = this.rights[node];
+      }
+    }
+    return Arrays.copyOf(found, size);
+  }
+
+  // builds the subtree over the given intervals, which are in order of their starts, and
+  // returns its node, or -1 if there are no intervals
+  private int build(int[] items, int size) {
+    if (size == 0) {
+      return -1;
+    }
+    int node = this.nodes++;
+    int center = this.starts[items[size / 2]];
+    int[] left = new int[size];
+    int[] right = new int[size];
+    int leftSize = 0;
+    int rightSize = 0;
+    int first = this.placed;
+    for (int i = 0; i < size; i++) {
+      int item = items[i];
+      if (this.ends[item] < center) {
+        left[leftSize++] = item;
+      }
+      else if (this.starts[item] > center) {
+        right[rightSize++] = item;
+      }
+      else {
+        this.byStart[this.placed++] = item;
+      }
+    }
+    int count = this.placed - first;
+    long[] order = new long[count];
+    for (int i = 0; i < count; i++) {
+      int item = this.byStart[first + i];
+      order[i] = ((long) this.ends[item] << 32) | item;
+    }
+    Arrays.sort(order);
+    for (int i = 0; i < count; i++) {
+      this.byEnd[first + i] = (int) order[count - 1 - i];
+    }
+    this.centers[node] = center;
+    this.firsts[node] = first;
+    this.counts[node] = count;
+    this.lefts[node] = build(left, leftSize);
+    this.rights[node] = build(right, rightSize);
+    return node;
+  }
+}
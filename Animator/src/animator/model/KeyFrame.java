@@ -126,27 +126,34 @@ public class KeyFrame implements IKeyFrame {
     if (shape == null) {
       throw new IllegalArgumentException("Shape cannot be null");
     }
+    if (this.x == second.getX() && this.y == second.getY() && this.width == second.getWidth()
+            && this.height == second.getHeight() && this.red == second.getRed()
+            && this.green == second.getGreen() && this.blue == second.getBlue()) {
+      // a shape that holds still takes the values of this KeyFrame as they are
+      shape.setX(this.x);
+      shape.setY(this.y);
+      shape.setDimX(this.width);
+      shape.setDimY(this.height);
+      shape.setRed(this.red);
+      shape.setGreen(this.green);
+      shape.setBlue(this.blue);
+      return shape;
+    }
 
-    float period = second.getTick() - this.getTick();
-    int startTime = this.getTick();
-    shape.setX(getPointAt(time, this.getX(), second.getX(), period, startTime));
-    shape.setY(getPointAt(time, this.getY(), second.getY(), period, startTime));
-    shape.setDimX(getPointAt(time, this.getWidth(), second.getWidth(), period, startTime));
-    shape.setDimY(getPointAt(time, this.getHeight(), second.getHeight(), period, startTime));
-    shape.setRed(getPointAt(time, this.getRed(), second.getRed(), period, startTime));
-    shape.setGreen(getPointAt(time, this.getGreen(), second.getGreen(), period, startTime));
-    shape.setBlue(getPointAt(time, this.getBlue(), second.getBlue(), period, startTime));
+    int period = second.getTick() - this.getTick();
+    int elapsed = time - this.getTick();
+    shape.setX(Interpolation.getPointAt(elapsed, period, this.getX(), second.getX()));
+    shape.setY(Interpolation.getPointAt(elapsed, period, this.getY(), second.getY()));
+    shape.setDimX(Interpolation.getPointAt(elapsed, period, this.getWidth(), second.getWidth()));
+    shape.setDimY(Interpolation.getPointAt(elapsed, period, this.getHeight(),
+            second.getHeight()));
+    shape.setRed(Interpolation.getPointAt(elapsed, period, this.getRed(), second.getRed()));
+    shape.setGreen(Interpolation.getPointAt(elapsed, period, this.getGreen(), second.getGreen()));
+    shape.setBlue(Interpolation.getPointAt(elapsed, period, this.getBlue(), second.getBlue()));
 
     return shape;
   }
 
-  private int getPointAt(int time, int initial, int fin, float period, int startTime) {
-    float timeElapsed = time - startTime;
-    float percentElapsed = timeElapsed / period;
-    int change = fin - initial;
-    return (initial  + Math.round(percentElapsed * change));
-  }
-
   @Override
   public String toString() {
     return "tick = " + this.getTick()
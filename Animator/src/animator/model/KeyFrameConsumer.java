@@ -0,0 +1,24 @@
+package animator.model;
+
+/**
+ * A functional interface representing an action performed on the fields of a single KeyFrame.
+ * This allows the KeyFrames of a shape to be read without creating KeyFrame objects.
+ */
+@FunctionalInterface
+public interface KeyFrameConsumer {
+
+  /**
+   * Performs this action on the fields of a KeyFrame.
+   *
+   * @param tick the tick of the KeyFrame.
+   * @param x the x value of the KeyFrame.
+   * @param y the y value of the KeyFrame.
+   * @param width the width value of the KeyFrame.
+   * @param height the height value of the KeyFrame.
+   * @param red the red value of the KeyFrame.
+   * @param green the green value of the KeyFrame.
+   * @param blue the blue value of the KeyFrame.
+   */
+  void accept(int tick, int x, int y, int width, int height, int red, int green, int blue);
+
+}
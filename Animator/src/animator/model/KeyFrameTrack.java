@@ -0,0 +1,919 @@
+package animator.model;
+
+import java.util.Arrays;
+
+/**
+ * A class representing all of the KeyFrames of a single shape. Rather than keeping one KeyFrame
+ * object per endpoint, every KeyFrame is stored as one fixed-size row of a single array of
+ * primitive values ordered by tick. The array grows geometrically as KeyFrames are added.
+ * KeyFrame objects are only created when a caller asks for one. Each row also refers to the
+ * fixed-point slopes of the segment that starts at its KeyFrame, compiled whenever either end of
+ * the segment changes, so sampling a segment needs no division. The slopes are kept in a pool
+ * shared by every track of a model, since many segments of many shapes have the same ones.
+ */
+final class KeyFrameTrack {
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  // the layout of a row: the tick, the seven attributes, then the entry of the pool holding the
+  // slopes of the segment
+  private static final int TICK = 0;
+  private static final int X = 1;
+  private static final int Y = 2;
+  private static final int WIDTH = 3;
+  private static final int HEIGHT = 4;
+  private static final int RED = 5;
+  private static final int GREEN = 6;
+  private static final int BLUE = 7;
+  private static final int SEGMENT = 8;
+  private static final int STRIDE = 9;
+
+  /**
+   * The number of attributes of a KeyFrame that change over a segment, numbered from 0 for x
+   * through y, width, height, red and green to 6 for blue.
+   */
+  static final int ATTRIBUTES = 7;
+
+  // the group of each attribute, and the tolerance of an attribute that is not checked
+  private static final int[] GROUPS = {IViewOnlyAnimationModel.POSITION,
+      IViewOnlyAnimationModel.POSITION, IViewOnlyAnimationModel.SIZE, IViewOnlyAnimationModel.SIZE,
+      IViewOnlyAnimationModel.COLOR, IViewOnlyAnimationModel.COLOR, IViewOnlyAnimationModel.COLOR};
+  private static final int ALL_GROUPS = IViewOnlyAnimationModel.POSITION
+          | IViewOnlyAnimationModel.SIZE | IViewOnlyAnimationModel.COLOR;
+  private static final int IGNORED = -1;
+  // the tolerances that let no attribute change at all
+  private static final int[] EXACT = new int[ATTRIBUTES];
+
+  private final SegmentPool pool;
+  // the generation of the model in which this track was copied, or -1 if it was not copied
+  private int generation;
+  private int size;
+  private int[] rows;
+
+  /**
+   * A constructor that creates an empty track.
+   *
+   * @param pool the pool that the compiled slopes of this track are kept in.
+   */
+  KeyFrameTrack(SegmentPool pool) {
+    this.pool = pool;
+    this.generation = -1;
+    this.size = 0;
+    this.rows = new int[INITIAL_CAPACITY * STRIDE];
+  }
+
+  /**
+   * Creates a copy of this track with room for one more KeyFrame, which is all that a single edit
+   * needs.
+   *
+   * @param generation the generation of the model in which the copy is made.
+   * @return a new track holding the same KeyFrames and slopes.
+   */
+  KeyFrameTrack copy(int generation) {
+    return copy(generation, this.pool);
+  }
+
+  /**
+   * Creates a copy of this track with room for one more KeyFrame, whose slopes are kept in the
+   * given pool. The slopes are compiled again unless it is the pool of this track.
+   *
+   * @param generation the generation of the model in which the copy is made.
+   * @param pool the pool that the compiled slopes of the copy are kept in.
+   * @return a new track holding the same KeyFrames and slopes.
+   */
+  KeyFrameTrack copy(int generation, SegmentPool pool) {
+    KeyFrameTrack result = new KeyFrameTrack(pool);
+    result.generation = generation;
+    result.size = this.size;
+    result.rows = Arrays.copyOf(this.rows, (this.size + 1) * STRIDE);
+    if (pool != this.pool) {
+      for (int segment = 0; segment + 1 < this.size; segment++) {
+        result.compileSegment(segment);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Checks whether the compiled slopes of this track are kept in the given pool.
+   *
+   * @param pool the pool to check.
+   * @return whether this track refers to the entries of that pool.
+   */
+  boolean isIn(SegmentPool pool) {
+    return this.pool == pool;
+  }
+
+  /**
+   * Marks the entries of the pool that the segments of this track refer to.
+   *
+   * @param used whether each entry of the pool is used, by index, which is set for the entries
+   *             of this track.
+   */
+  void markSegments(boolean[] used) {
+    for (int segment = 0; segment + 1 < this.size; segment++) {
+      used[this.rows[segment * STRIDE + SEGMENT]] = true;
+    }
+  }
+
+  /**
+   * Retrieves the generation of the model in which this track was copied. The model may only
+   * change a track in place during that generation, as a new one starts whenever a version holding
+   * its tracks is handed out.
+   *
+   * @return the generation, or -1 if the track was not copied by the model.
+   */
+  int getGeneration() {
+    return this.generation;
+  }
+
+  /**
+   * Counts the bytes taken by the KeyFrames of this track, not counting the entries of the pool
+   * that they refer to.
+   *
+   * @return the number of bytes.
+   */
+  long getBytes() {
+    return 4L * this.size * STRIDE;
+  }
+
+  /**
+   * Retrieves the number of KeyFrames in this track.
+   *
+   * @return an integer representing the number of KeyFrames.
+   */
+  int size() {
+    return this.size;
+  }
+
+  int getTick(int index) {
+    return this.rows[index * STRIDE + TICK];
+  }
+
+  int getX(int index) {
+    return this.rows[index * STRIDE + X];
+  }
+
+  int getY(int index) {
+    return this.rows[index * STRIDE + Y];
+  }
+
+  int getWidth(int index) {
+    return this.rows[index * STRIDE + WIDTH];
+  }
+
+  int getHeight(int index) {
+    return this.rows[index * STRIDE + HEIGHT];
+  }
+
+  int getRed(int index) {
+    return this.rows[index * STRIDE + RED];
+  }
+
+  int getGreen(int index) {
+    return this.rows[index * STRIDE + GREEN];
+  }
+
+  int getBlue(int index) {
+    return this.rows[index * STRIDE + BLUE];
+  }
+
+  /**
+   * Retrieves one attribute of the KeyFrame at the given index.
+   *
+   * @param index the position of the KeyFrame in this track.
+   * @param attribute the number of the attribute.
+   * @return the value of the attribute.
+   */
+  int getValue(int index, int attribute) {
+    return this.rows[index * STRIDE + X + attribute];
+  }
+
+  /**
+   * Retrieves the compiled slope of one attribute over the segment starting at the given index.
+   *
+   * @param segment the index of the first KeyFrame of the segment.
+   * @param attribute the number of the attribute.
+   * @return the slope, or {@link Interpolation#INEXACT} if the floating point rule must be used.
+   */
+  int getSlope(int segment, int attribute) {
+    return this.pool.getSlope(this.rows[segment * STRIDE + SEGMENT], attribute);
+  }
+
+  /**
+   * Checks whether a shape holds still over the segment starting at the given index, which is the
+   * case when every attribute has the same value at both ends.
+   *
+   * @param segment the index of the first KeyFrame of the segment.
+   * @return whether the segment is a hold.
+   */
+  boolean isHold(int segment) {
+    return this.pool.isHold(this.rows[segment * STRIDE + SEGMENT]);
+  }
+
+  /**
+   * Finds the value of one attribute at the given tick of a segment.
+   *
+   * @param segment the index of the first KeyFrame of the segment.
+   * @param attribute the number of the attribute.
+   * @param time the tick that the value should reflect.
+   * @return the value of the attribute.
+   */
+  int getValueAt(int segment, int attribute, int time) {
+    int row = segment * STRIDE;
+    return getPointAt(row, X + attribute, time - this.rows[row + TICK]);
+  }
+
+  /**
+   * Creates a KeyFrame object holding the values stored at the given index.
+   *
+   * @param index the position of the KeyFrame in this track.
+   * @return a new KeyFrame object.
+   */
+  IKeyFrame getKeyFrame(int index) {
+    int row = index * STRIDE;
+    return new KeyFrame(this.rows[row + TICK], this.rows[row + X], this.rows[row + Y],
+            this.rows[row + WIDTH], this.rows[row + HEIGHT], this.rows[row + RED],
+            this.rows[row + GREEN], this.rows[row + BLUE]);
+  }
+
+  /**
+   * Creates the motion command between the KeyFrame at the given index and the one after it.
+   *
+   * @param index the position of the first KeyFrame of the motion.
+   * @return a new motion command.
+   */
+  ICommand getCommand(int index) {
+    int row = index * STRIDE;
+    int next = row + STRIDE;
+    return new MotionCommand(this.rows[row + TICK], this.rows[row + X], this.rows[row + Y],
+            this.rows[row + WIDTH], this.rows[row + HEIGHT], this.rows[row + RED],
+            this.rows[row + GREEN], this.rows[row + BLUE], this.rows[next + TICK],
+            this.rows[next + X], this.rows[next + Y], this.rows[next + WIDTH],
+            this.rows[next + HEIGHT], this.rows[next + RED], this.rows[next + GREEN],
+            this.rows[next + BLUE]);
+  }
+
+  /**
+   * Appends a KeyFrame to the end of this track.
+   *
+   * @param k the KeyFrame to be added.
+   */
+  void add(IKeyFrame k) {
+    insert(this.size, k);
+  }
+
+  /**
+   * Appends a KeyFrame given by its values to the end of this track, without creating a KeyFrame
+   * object.
+   *
+   * @param tick the tick of the KeyFrame.
+   * @param x the x position of the shape.
+   * @param y the y position of the shape.
+   * @param width the width of the shape.
+   * @param height the height of the shape.
+   * @param red the red value of the shape.
+   * @param green the green value of the shape.
+   * @param blue the blue value of the shape.
+   */
+  void add(int tick, int x, int y, int width, int height, int red, int green, int blue) {
+    ensureCapacity(this.size + 1);
+    this.size++;
+    set(this.size - 1, tick, x, y, width, height, red, green, blue);
+  }
+
+  /**
+   * Inserts a KeyFrame at the given index, shifting every later KeyFrame back by one.
+   *
+   * @param index the position the KeyFrame should take.
+   * @param k the KeyFrame to be added.
+   */
+  void insert(int index, IKeyFrame k) {
+    ensureCapacity(this.size + 1);
+    int moved = this.size - index;
+    if (moved > 0) {
+      System.arraycopy(this.rows, index * STRIDE, this.rows, (index + 1) * STRIDE,
+              moved * STRIDE);
+    }
+    this.size++;
+    set(index, k);
+  }
+
+  /**
+   * Replaces the KeyFrame at the given index.
+   *
+   * @param index the position of the KeyFrame to be replaced.
+   * @param k the new KeyFrame.
+   */
+  void set(int index, IKeyFrame k) {
+    write(index, k);
+    compileSegment(index - 1);
+    compileSegment(index);
+  }
+
+  // writes the values of a KeyFrame into its row without compiling either segment
+  private void write(int index, IKeyFrame k) {
+    int row = index * STRIDE;
+    this.rows[row + TICK] = k.getTick();
+    this.rows[row + X] = k.getX();
+    this.rows[row + Y] = k.getY();
+    this.rows[row + WIDTH] = k.getWidth();
+    this.rows[row + HEIGHT] = k.getHeight();
+    this.rows[row + RED] = k.getRed();
+    this.rows[row + GREEN] = k.getGreen();
+    this.rows[row + BLUE] = k.getBlue();
+  }
+
+  // writes the values of a KeyFrame into its row and compiles the segments on either side
+  private void set(int index, int tick, int x, int y, int width, int height, int red, int green,
+                   int blue) {
+    int row = index * STRIDE;
+    this.rows[row + TICK] = tick;
+    this.rows[row + X] = x;
+    this.rows[row + Y] = y;
+    this.rows[row + WIDTH] = width;
+    this.rows[row + HEIGHT] = height;
+    this.rows[row + RED] = red;
+    this.rows[row + GREEN] = green;
+    this.rows[row + BLUE] = blue;
+    compileSegment(index - 1);
+    compileSegment(index);
+  }
+
+  /**
+   * Removes the KeyFrame at the given index, shifting every later KeyFrame forward by one.
+   *
+   * @param index the position of the KeyFrame to be removed.
+   */
+  void remove(int index) {
+    int moved = this.size - index - 1;
+    if (moved > 0) {
+      System.arraycopy(this.rows, (index + 1) * STRIDE, this.rows, index * STRIDE,
+              moved * STRIDE);
+    }
+    this.size--;
+    compileSegment(index - 1);
+  }
+
+  /**
+   * Removes the KeyFrames at the given indices all at once. Every KeyFrame that stays is moved at
+   * most once, and only the segments that now join KeyFrames that were apart are compiled.
+   *
+   * @param indices the positions of the KeyFrames to be removed, in increasing order.
+   */
+  void removeAll(int[] indices) {
+    int next = 0;
+    int kept = 0;
+    for (int index = 0; index < this.size; index++) {
+      if (next < indices.length && indices[next] == index) {
+        next++;
+        continue;
+      }
+      if (kept != index) {
+        System.arraycopy(this.rows, index * STRIDE, this.rows, kept * STRIDE, STRIDE);
+      }
+      // the segment before it now starts at a KeyFrame that was further back
+      if (kept > 0 && next > 0 && indices[next - 1] == index - 1) {
+        compileSegment(kept - 1);
+      }
+      kept++;
+    }
+    this.size = kept;
+  }
+
+  /**
+   * Inserts KeyFrames at the given indices all at once, such as those taken out by
+   * {@link #removeAll} or many loaded together. Every KeyFrame already here is moved at most
+   * once, and only the segments on either side of the new KeyFrames are compiled.
+   *
+   * @param indices the positions the KeyFrames should take, in increasing order.
+   * @param frames the KeyFrames to be added, in the same order.
+   */
+  void insertAll(int[] indices, IKeyFrame[] frames) {
+    ensureCapacity(this.size + indices.length);
+    int from = this.size - 1;
+    int next = indices.length - 1;
+    // filling the rows from the end reads every row that moves before it is written over
+    for (int index = this.size + indices.length - 1; next >= 0; index--) {
+      if (indices[next] == index) {
+        write(index, frames[next]);
+        next--;
+      }
+      else {
+        System.arraycopy(this.rows, from * STRIDE, this.rows, index * STRIDE, STRIDE);
+        from--;
+      }
+    }
+    this.size += indices.length;
+    for (int i = 0; i < indices.length; i++) {
+      // a segment between two new KeyFrames is compiled once
+      if (i == 0 || indices[i - 1] != indices[i] - 1) {
+        compileSegment(indices[i] - 1);
+      }
+      compileSegment(indices[i]);
+    }
+  }
+
+  /**
+   * Chooses the KeyFrames to keep so that leaving out every other one changes the state of the
+   * shape at no tick. Each KeyFrame is checked against the last one kept before it, just as if
+   * the KeyFrames left out so far had already been removed, so the choice is made in a single
+   * pass without changing this track. A KeyFrame that shares its tick with the one after it is
+   * only left out if it repeats the one kept before it at that tick. The first and last KeyFrames
+   * are always kept.
+   *
+   * @return whether each KeyFrame should be kept, by index.
+   */
+  boolean[] compact() {
+    return findNeeded(EXACT, true);
+  }
+
+  // chooses the KeyFrames that the attributes that are checked need to keep exactly the values
+  // they have at every tick, each one being needed unless the segment from the last KeyFrame kept
+  // to the one after it gives those values. If repeats are kept, a KeyFrame that shares its tick
+  // with the one after it is needed unless it repeats the last one kept at the same tick
+  private boolean[] findNeeded(int[] tolerances, boolean keepRepeats) {
+    boolean[] keep = new boolean[this.size];
+    if (this.size == 0) {
+      return keep;
+    }
+    keep[0] = true;
+    keep[this.size - 1] = true;
+    if (this.size < 3) {
+      return keep;
+    }
+    Run run = new Run(tolerances);
+    run.start(0);
+    for (int index = 1; index + 1 < this.size; index++) {
+      run.cover(index);
+      boolean needed;
+      if (keepRepeats && getTick(index) == getTick(index + 1)) {
+        needed = getTick(index) != getTick(run.first) || differs(index, run.first, tolerances);
+      }
+      else {
+        needed = !run.joins(index + 1);
+      }
+      if (needed) {
+        keep[index] = true;
+        run.start(index);
+      }
+    }
+    return keep;
+  }
+
+  /**
+   * Performs an action on the KeyFrames that some groups of attributes need, in order of tick,
+   * which gives a sparse track of just those attributes. A KeyFrame is left out when the segment
+   * from the last KeyFrame visited to the one after it gives exactly the same values of those
+   * attributes at every tick, such as one where only the color of a shape changes when its
+   * position is asked for. The KeyFrames are chosen in a single pass, as {@link #compact} chooses
+   * them. The first and last KeyFrames are always visited.
+   *
+   * @param groups any of {@link IViewOnlyAnimationModel#POSITION},
+   *               {@link IViewOnlyAnimationModel#SIZE} and {@link IViewOnlyAnimationModel#COLOR}
+   *               joined with bitwise or.
+   * @param action the action to be performed on each KeyFrame.
+   * @throws IllegalArgumentException if groups names no group or an unknown one.
+   */
+  void forEachNeeded(int groups, KeyFrameConsumer action) {
+    if (groups <= 0 || (groups & ~ALL_GROUPS) != 0) {
+      throw new IllegalArgumentException("Invalid groups of attributes " + groups);
+    }
+    int[] tolerances = new int[ATTRIBUTES];
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      tolerances[attribute] = (groups & GROUPS[attribute]) != 0 ? 0 : IGNORED;
+    }
+    boolean[] needed = findNeeded(tolerances, false);
+    for (int index = 0; index < this.size; index++) {
+      if (needed[index]) {
+        int row = index * STRIDE;
+        action.accept(this.rows[row + TICK], this.rows[row + X], this.rows[row + Y],
+                this.rows[row + WIDTH], this.rows[row + HEIGHT], this.rows[row + RED],
+                this.rows[row + GREEN], this.rows[row + BLUE]);
+      }
+    }
+  }
+
+  // whether any attribute that is checked has a different value at two KeyFrames
+  private boolean differs(int index, int other, int[] tolerances) {
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      if (tolerances[attribute] != IGNORED
+              && getValue(index, attribute) != getValue(other, attribute)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Chooses the KeyFrames to keep so that leaving out every other one changes no attribute at any
+   * tick by more than a tolerance, following the Douglas-Peucker rule. A run of KeyFrames is
+   * replaced by the single segment joining its ends if that segment stays within the tolerances at
+   * every tick of the run, and is otherwise split at the KeyFrame furthest from the segment and
+   * each half is tried in turn. The first and last KeyFrames are always kept.
+   *
+   * @param pixels the most that the position or size may change at any tick.
+   * @param colors the most that each color value may change at any tick.
+   * @return whether each KeyFrame should be kept, by index.
+   */
+  boolean[] simplify(int pixels, int colors) {
+    boolean[] keep = new boolean[this.size];
+    if (this.size == 0) {
+      return keep;
+    }
+    keep[0] = true;
+    keep[this.size - 1] = true;
+    int[] tolerances = {pixels, pixels, pixels, pixels, colors, colors, colors};
+    int[] runs = new int[64];
+    int top = 0;
+    runs[top++] = 0;
+    runs[top++] = this.size - 1;
+    while (top > 0) {
+      int last = runs[--top];
+      int first = runs[--top];
+      if (last - first < 2) {
+        continue;
+      }
+      int split = furthestWithin(first, last, tolerances);
+      if (split < 0) {
+        continue;
+      }
+      keep[split] = true;
+      if (top + 4 > runs.length) {
+        runs = Arrays.copyOf(runs, runs.length * 2);
+      }
+      runs[top++] = first;
+      runs[top++] = split;
+      runs[top++] = split;
+      runs[top++] = last;
+    }
+    return keep;
+  }
+
+  // returns -1 if the segment from first to last stays within the tolerances at every tick that
+  // the KeyFrames between them cover, or otherwise the KeyFrame between them furthest from it
+  private int furthestWithin(int first, int last, int[] tolerances) {
+    int start = getTick(first);
+    int end = getTick(last);
+    int furthest = (first + last) >>> 1;
+    if (start >= end) {
+      return furthest;
+    }
+    // only the attributes that are checked and do not hold one value throughout can differ
+    int moving = 0;
+    for (int index = first + 1; index <= last; index++) {
+      int tick = getTick(index);
+      if (tick < start || tick > end) {
+        return index;
+      }
+      for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+        if (tolerances[attribute] != IGNORED
+                && getValue(index, attribute) != getValue(first, attribute)) {
+          moving |= 1 << attribute;
+        }
+      }
+    }
+    if (moving == 0) {
+      return -1;
+    }
+    int[] slopes = new int[ATTRIBUTES];
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      slopes[attribute] = Interpolation.slope(end - start, getValue(first, attribute),
+              getValue(last, attribute));
+    }
+    int worst = 0;
+    for (int index = first + 1; index < last; index++) {
+      for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+        if ((moving & (1 << attribute)) == 0) {
+          continue;
+        }
+        int excess = Math.abs(getMergedValue(first, last, attribute, slopes[attribute],
+                getTick(index)) - getValue(index, attribute)) - tolerances[attribute];
+        if (excess > worst) {
+          worst = excess;
+          furthest = index;
+        }
+      }
+    }
+    if (worst > 0) {
+      return furthest;
+    }
+    boolean[] rounded = new boolean[ATTRIBUTES];
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      if ((moving & (1 << attribute)) != 0) {
+        long change = (long) getValue(last, attribute) - getValue(first, attribute);
+        rounded[attribute] = slopes[attribute] != Interpolation.INEXACT
+                || ((int) change == change && Exactness.isRounded(end - start, (int) change));
+      }
+    }
+    // each tick is sampled from the last segment that starts at or before it, and the tick of the
+    // last KeyFrame is only sampled from these segments if it ends the track
+    for (int segment = first; segment < last; segment++) {
+      int to = segment + 1 < last || last + 1 < this.size ? getTick(segment + 1) - 1 : end;
+      if (to < getTick(segment)) {
+        continue;
+      }
+      for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+        if ((moving & (1 << attribute)) != 0 && !staysWithin(first, last, attribute,
+                slopes[attribute], rounded[attribute], segment, to, tolerances[attribute])) {
+          return furthest;
+        }
+      }
+    }
+    return -1;
+  }
+
+  // whether the segment from first to last gives one attribute within a tolerance of the segment
+  // starting at the given index, at every tick from the start of that segment to the given one.
+  // When both segments give their true values rounded half up, the ticks are compared all at once
+  // by Exactness, and every other case has its ticks compared one by one
+  private boolean staysWithin(int first, int last, int attribute, int slope, boolean rounded,
+                              int segment, int to, int tolerance) {
+    int start = getTick(first);
+    int period = getTick(last) - start;
+    int initial = getValue(first, attribute);
+    long change = (long) getValue(last, attribute) - initial;
+    int from = getTick(segment);
+    int segmentPeriod = getTick(segment + 1) - from;
+    int segmentInitial = getValue(segment, attribute);
+    long segmentChange = (long) getValue(segment + 1, attribute) - segmentInitial;
+    long offset = (long) initial - segmentInitial;
+    if (!rounded || !Exactness.canCompare(period, change, offset, segmentPeriod, segmentChange,
+            tolerance) || (getSlope(segment, attribute) == Interpolation.INEXACT
+            && !Exactness.isRounded(segmentPeriod, (int) segmentChange))) {
+      // counted in a long, since the last tick may be the largest int
+      for (long time = from; time <= to; time++) {
+        if (Math.abs(getMergedValue(first, last, attribute, slope, (int) time)
+                - getValueAt(segment, attribute, (int) time)) > tolerance) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return Exactness.staysWithin(period, change, offset, from - start, segmentPeriod,
+            segmentChange, to - from, tolerance);
+  }
+
+  // finds the value of one attribute at a tick of the segment that would join two KeyFrames
+  private int getMergedValue(int first, int last, int attribute, int slope, int time) {
+    int initial = getValue(first, attribute);
+    int elapsed = time - getTick(first);
+    if (slope == Interpolation.INEXACT) {
+      return Interpolation.getPointAt(elapsed, getTick(last) - getTick(first), initial,
+              getValue(last, attribute));
+    }
+    return Interpolation.getPointAt(elapsed, initial, slope);
+  }
+
+  /**
+   * Finds the first KeyFrame with the given tick.
+   *
+   * @param tick the tick to search for.
+   * @return the index of the KeyFrame, or -1 if there is no KeyFrame at the tick.
+   */
+  int indexOf(int tick) {
+    int index = lowerBound(tick);
+    if (index < this.size && getTick(index) == tick) {
+      return index;
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the last segment between two neighbouring KeyFrames that contains the given tick.
+   *
+   * @param tick the tick to search for.
+   * @return the index of the first KeyFrame of the segment, or -1 if no segment contains tick.
+   */
+  int findSegment(int tick) {
+    int low = 0;
+    int high = this.size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getTick(mid) <= tick) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    int segment = Math.min(low - 1, this.size - 2);
+    if (segment < 0 || tick > getTick(segment + 1)) {
+      return -1;
+    }
+    return segment;
+  }
+
+  /**
+   * Mutates a shape to be at its state at the given tick of a segment. No objects are created.
+   *
+   * @param segment the index of the first KeyFrame of the segment.
+   * @param time the tick that the shape's state should reflect.
+   * @param shape the shape to be mutated.
+   * @return the given shape.
+   */
+  IShape getState(int segment, int time, IShape shape) {
+    int row = segment * STRIDE;
+    if (this.pool.isHold(this.rows[row + SEGMENT])) {
+      // a shape that holds still takes the values of the KeyFrame as they are
+      shape.setX(this.rows[row + X]);
+      shape.setY(this.rows[row + Y]);
+      shape.setDimX(this.rows[row + WIDTH]);
+      shape.setDimY(this.rows[row + HEIGHT]);
+      shape.setRed(this.rows[row + RED]);
+      shape.setGreen(this.rows[row + GREEN]);
+      shape.setBlue(this.rows[row + BLUE]);
+      return shape;
+    }
+    int elapsed = time - this.rows[row + TICK];
+    shape.setX(getPointAt(row, X, elapsed));
+    shape.setY(getPointAt(row, Y, elapsed));
+    shape.setDimX(getPointAt(row, WIDTH, elapsed));
+    shape.setDimY(getPointAt(row, HEIGHT, elapsed));
+    shape.setRed(getPointAt(row, RED, elapsed));
+    shape.setGreen(getPointAt(row, GREEN, elapsed));
+    shape.setBlue(getPointAt(row, BLUE, elapsed));
+    return shape;
+  }
+
+  /**
+   * Appends the state of a shape at the given tick of a segment to a frame buffer. No objects are
+   * created unless the buffer has to grow.
+   *
+   * @param segment the index of the first KeyFrame of the segment.
+   * @param time the tick that the state should reflect.
+   * @param id the unique identifier of the shape.
+   * @param kind the kind of the shape.
+   * @param out the frame buffer to append to.
+   */
+  void getState(int segment, int time, String id, int kind, FrameBuffer out) {
+    int row = segment * STRIDE;
+    if (this.pool.isHold(this.rows[row + SEGMENT])) {
+      out.add(id, kind, this.rows[row + X], this.rows[row + Y], this.rows[row + WIDTH],
+              this.rows[row + HEIGHT], this.rows[row + RED], this.rows[row + GREEN],
+              this.rows[row + BLUE]);
+      return ;
+    }
+    int elapsed = time - this.rows[row + TICK];
+    out.add(id, kind, getPointAt(row, X, elapsed), getPointAt(row, Y, elapsed),
+            getPointAt(row, WIDTH, elapsed), getPointAt(row, HEIGHT, elapsed),
+            getPointAt(row, RED, elapsed), getPointAt(row, GREEN, elapsed),
+            getPointAt(row, BLUE, elapsed));
+  }
+
+  // finds the value of one attribute part of the way through the segment starting at row
+  private int getPointAt(int row, int attribute, int elapsed) {
+    int initial = this.rows[row + attribute];
+    int slope = this.pool.getSlope(this.rows[row + SEGMENT], attribute - X);
+    if (slope == Interpolation.INEXACT) {
+      int next = row + STRIDE;
+      return Interpolation.getPointAt(elapsed, this.rows[next + TICK] - this.rows[row + TICK],
+              initial, this.rows[next + attribute]);
+    }
+    return Interpolation.getPointAt(elapsed, initial, slope);
+  }
+
+  // compiles the slopes of the segment starting at the given index, if there is one
+  private void compileSegment(int segment) {
+    if (segment < 0 || segment + 1 >= this.size) {
+      return ;
+    }
+    int row = segment * STRIDE;
+    int next = row + STRIDE;
+    this.rows[row + SEGMENT] = this.pool.intern(this.rows[next + TICK] - this.rows[row + TICK],
+            this.rows, row + X, next + X);
+  }
+
+  /**
+   * Finds the index of the first KeyFrame whose tick is not less than the given tick, which is
+   * where a KeyFrame at that tick belongs.
+   *
+   * @param tick the tick to search for.
+   * @return an index between 0 and the size of this track.
+   */
+  int lowerBound(int tick) {
+    int low = 0;
+    int high = this.size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getTick(mid) < tick) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * A run of KeyFrames that may all be left out but the first and the next one to be kept. Each
+   * tick of a segment of the run only allows the segments from the first KeyFrame whose slope
+   * lies between two bounds, if they are to give the value the run has there. The run keeps the
+   * tightest bounds of every tick it covers, so the segment to each new KeyFrame is checked
+   * against the bounds alone, and the ticks of each segment are only visited as it is added.
+   * The bounds match sampling exactly when the segment to the new KeyFrame gives its true values
+   * rounded half up. Otherwise, or if the values are too large to compare exactly, the ticks of
+   * the whole run are checked again.
+   */
+  private final class Run {
+
+    private final int[] tolerances;
+    private final Exactness.SlopeBounds bounds;
+    private int first;
+    // whether any attribute that is checked changes from the first KeyFrame
+    private boolean moving;
+    // whether a tick of the first KeyFrame has another value, which no segment from it gives
+    private boolean broken;
+    // whether some tick was too far from the first KeyFrame to be bounded
+    private boolean wide;
+
+    private Run(int[] tolerances) {
+      this.tolerances = tolerances;
+      this.bounds = new Exactness.SlopeBounds(ATTRIBUTES);
+    }
+
+    // starts a run at the given KeyFrame, covering the segment after it
+    private void start(int index) {
+      this.first = index;
+      this.bounds.clear();
+      this.moving = false;
+      this.broken = false;
+      this.wide = false;
+      cover(index);
+    }
+
+    // narrows the bounds by the ticks of the segment starting at the given index, which are all
+    // but its last one, or only its first one if it is empty
+    private void cover(int segment) {
+      this.moving = this.moving || differs(segment + 1, this.first, this.tolerances);
+      int start = getTick(this.first);
+      int from = getTick(segment);
+      int to = Math.max(from, getTick(segment + 1) - 1);
+      if (to - start > Exactness.SlopeBounds.LIMIT) {
+        this.wide = true;
+      }
+      if (this.broken || this.wide) {
+        return ;
+      }
+      for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+        if (this.tolerances[attribute] == IGNORED) {
+          continue;
+        }
+        int initial = getValue(this.first, attribute);
+        // counted in a long, since an empty segment may start at the largest int
+        for (long time = from; time <= to; time++) {
+          long offset = (long) getValueAt(segment, attribute, (int) time) - initial;
+          long elapsed = time - start;
+          if (elapsed == 0) {
+            this.broken = this.broken || offset != 0;
+          }
+          else if (Math.abs(offset) > Exactness.SlopeBounds.LIMIT) {
+            this.wide = true;
+          }
+          else {
+            this.bounds.narrow(attribute, offset, elapsed);
+          }
+        }
+      }
+    }
+
+    // whether the segment from the first KeyFrame to the given one gives the values of the
+    // attributes that are checked at every tick the run covers
+    private boolean joins(int last) {
+      if (!this.moving) {
+        return true;
+      }
+      long period = getTick(last) - getTick(this.first);
+      if (period == 0 || this.broken) {
+        return false;
+      }
+      boolean checkTicks = this.wide;
+      for (int attribute = 0; attribute < ATTRIBUTES && !checkTicks; attribute++) {
+        if (this.tolerances[attribute] == IGNORED) {
+          continue;
+        }
+        int initial = getValue(this.first, attribute);
+        int fin = getValue(last, attribute);
+        long change = (long) fin - initial;
+        if (Math.abs(change) > Exactness.SlopeBounds.LIMIT
+                || (Interpolation.slope((int) period, initial, fin) == Interpolation.INEXACT
+                && !Exactness.isRounded((int) period, (int) change))) {
+          checkTicks = true;
+        }
+        else if (!this.bounds.allows(attribute, change, period)) {
+          return false;
+        }
+      }
+      return !checkTicks || furthestWithin(this.first, last, this.tolerances) < 0;
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity * STRIDE <= this.rows.length) {
+      return ;
+    }
+    int newCapacity = Math.max(capacity, this.rows.length / STRIDE * 2);
+    this.rows = Arrays.copyOf(this.rows, newCapacity * STRIDE);
+  }
+}
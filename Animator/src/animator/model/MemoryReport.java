@@ -0,0 +1,106 @@
+package animator.model;
+
+/**
+ * A public class representing how much memory the KeyFrames and commands of a model take, and how
+ * much of it is saved by keeping the compiled slopes of segments that are alike only once, however
+ * many shapes use them. The shapes themselves, their names, the versions handed out and the edits
+ * that can be undone are not counted.
+ */
+public final class MemoryReport {
+
+  private final int keyFrames;
+  private final int segments;
+  private final int sharedSegments;
+  private final int unusedSegments;
+  private final int commands;
+  private final long bytes;
+  private final long unsharedBytes;
+
+  /**
+   * A constructor that holds the given counts.
+   *
+   * @param keyFrames the number of KeyFrames of every shape.
+   * @param segments the number of segments between neighbouring KeyFrames of every shape.
+   * @param sharedSegments the number of distinct compiled segments that the segments use.
+   * @param unusedSegments the number of compiled segments kept that no segment uses.
+   * @param commands the number of commands of every shape.
+   * @param bytes the bytes taken by the KeyFrames, the compiled segments and the commands.
+   * @param unsharedBytes the bytes they would take if every segment kept its own slopes.
+   */
+  MemoryReport(int keyFrames, int segments, int sharedSegments, int unusedSegments, int commands,
+               long bytes, long unsharedBytes) {
+    this.keyFrames = keyFrames;
+    this.segments = segments;
+    this.sharedSegments = sharedSegments;
+    this.unusedSegments = unusedSegments;
+    this.commands = commands;
+    this.bytes = bytes;
+    this.unsharedBytes = unsharedBytes;
+  }
+
+  /**
+   * Retrieves the number of KeyFrames of every shape.
+   *
+   * @return an integer representing the number of KeyFrames.
+   */
+  public int getKeyFrames() {
+    return this.keyFrames;
+  }
+
+  /**
+   * Retrieves the number of segments between neighbouring KeyFrames of every shape.
+   *
+   * @return an integer representing the number of segments.
+   */
+  public int getSegments() {
+    return this.segments;
+  }
+
+  /**
+   * Retrieves the number of distinct compiled segments that the segments share.
+   *
+   * @return an integer representing the number of compiled segments.
+   */
+  public int getSharedSegments() {
+    return this.sharedSegments;
+  }
+
+  /**
+   * Retrieves the number of compiled segments still kept that no segment uses, left behind by
+   * shapes that were edited or removed. They are counted in the bytes taken until the model
+   * clears them out, which it does once they outnumber the ones in use.
+   *
+   * @return an integer representing the number of unused compiled segments.
+   */
+  public int getUnusedSegments() {
+    return this.unusedSegments;
+  }
+
+  /**
+   * Retrieves the number of commands of every shape.
+   *
+   * @return an integer representing the number of commands.
+   */
+  public int getCommands() {
+    return this.commands;
+  }
+
+  /**
+   * Retrieves the bytes taken by the KeyFrames, the compiled segments and the commands.
+   *
+   * @return the number of bytes.
+   */
+  public long getBytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Retrieves the bytes saved by sharing compiled segments, compared to every segment keeping its
+   * own slopes next to its first KeyFrame.
+   *
+   * @return the number of bytes, which is negative if sharing costs more than it saves.
+   */
+  public long getBytesSaved() {
+    return this.unsharedBytes - this.bytes;
+  }
+}
@@ -25,6 +25,8 @@ public class MotionCommand implements ICommand {
   private final int endRed;
   private final int endGreen;
   private final int endBlue;
+  // whether the shape holds still, so that its state never needs to be interpolated
+  private final boolean hold;
   
   /**
    * 16 parameter constructor that takes in the start shape parameters and end shape parameters.
@@ -67,6 +69,7 @@ public class MotionCommand implements ICommand {
     this.endRed = r2;
     this.endGreen = g2;
     this.endBlue = b2;
+    this.hold = x1 == x2 && y1 == y2 && w1 == w2 && h1 == h2 && r1 == r2 && g1 == g2 && b1 == b2;
 
   }
 
@@ -95,6 +98,16 @@ public class MotionCommand implements ICommand {
     if (shape == null) {
       throw new IllegalArgumentException("Shape cannot be null");
     }
+    if (hold) {
+      shape.setX(startX);
+      shape.setY(startY);
+      shape.setDimX(startWidth);
+      shape.setDimY(startHeight);
+      shape.setRed(startRed);
+      shape.setGreen(startGreen);
+      shape.setBlue(startBlue);
+      return shape;
+    }
 
     shape.setX(getPointAt(time, startX, endX));
     shape.setY(getPointAt(time, startY, endY));
@@ -108,13 +121,7 @@ public class MotionCommand implements ICommand {
   }
 
   private int getPointAt(int time, int initial, int fin) {
-    float period = endTime - startTime;
-    float timeElapsed = time - startTime;
-    float percentElapsed = timeElapsed / period;
-
-    int change = fin - initial;
-
-    return (initial  + Math.round(percentElapsed * change));
+    return Interpolation.getPointAt(time - startTime, endTime - startTime, initial, fin);
   }
 
   @Override
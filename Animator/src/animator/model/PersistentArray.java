@@ -0,0 +1,107 @@
+package animator.model;
+
+/**
+ * A class representing an immutable array that is changed by making a new array sharing most of
+ * its contents with the old one. Elements are kept in the leaves of a tree in which every node
+ * holds up to 32 children, so replacing or appending an element only copies the few nodes on the
+ * path to it rather than every element. Old arrays are never changed, so any number of threads may
+ * read them while new ones are made.
+ *
+ * @param <T> the type of the elements.
+ */
+final class PersistentArray<T> {
+
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  private final Object[] root;
+  private final int shift;
+  private final int size;
+
+  /**
+   * A constructor that creates an empty array.
+   */
+  PersistentArray() {
+    this(new Object[WIDTH], 0, 0);
+  }
+
+  private PersistentArray(Object[] root, int shift, int size) {
+    this.root = root;
+    this.shift = shift;
+    this.size = size;
+  }
+
+  /**
+   * Creates an array holding the given elements in order.
+   *
+   * @param elements the elements, which are copied.
+   * @param <T> the type of the elements.
+   * @return a new array.
+   */
+  static <T> PersistentArray<T> of(T[] elements) {
+    PersistentArray<T> result = new PersistentArray<>();
+    for (T element : elements) {
+      result = result.set(result.size, element);
+    }
+    return result;
+  }
+
+  /**
+   * Retrieves the number of elements in this array.
+   *
+   * @return the number of elements.
+   */
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Retrieves the element at the given index.
+   *
+   * @param index the position of the element.
+   * @return the element.
+   */
+  @SuppressWarnings("unchecked")
+  T get(int index) {
+    Object[] node = this.root;
+    for (int level = this.shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(index >>> level) & MASK];
+    }
+    return (T) node[index & MASK];
+  }
+
+  /**
+   * Creates an array that holds the given element at the given index and is otherwise the same as
+   * this one. The index may be the size of this array, in which case the element is appended.
+   *
+   * @param index the position of the element.
+   * @param element the new element.
+   * @return a new array.
+   */
+  PersistentArray<T> set(int index, T element) {
+    Object[] newRoot = this.root;
+    int newShift = this.shift;
+    // a full tree gains a level above the old root before it can hold another element
+    if (index >>> BITS >= 1 << newShift) {
+      newRoot = new Object[WIDTH];
+      newRoot[0] = this.root;
+      newShift += BITS;
+    }
+    return new PersistentArray<>(set(newRoot, newShift, index, element), newShift,
+            Math.max(this.size, index + 1));
+  }
+
+  // copies the path from a node down to the leaf holding the index, changing the element there
+  private static Object[] set(Object[] node, int level, int index, Object element) {
+    Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+    if (level == 0) {
+      copy[index & MASK] = element;
+    }
+    else {
+      int child = (index >>> level) & MASK;
+      copy[child] = set((Object[]) copy[child], level - BITS, index, element);
+    }
+    return copy;
+  }
+}
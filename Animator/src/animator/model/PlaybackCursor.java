@@ -0,0 +1,153 @@
+package animator.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A public class representing a position in the playback of an animation. The model is compiled
+ * into a queue of events sorted by tick, each of which either moves a shape into a new segment or
+ * hides it once its last KeyFrame has passed. The cursor keeps the set of shapes that are visible
+ * at its tick, so moving forward only plays the events that were crossed and sampling only touches
+ * visible shapes. Moving backwards, as when an animation restarts or loops, empties the set and
+ * plays the queue again from the start. The cursor plays the latest version published by the
+ * model, so it never sees half of an edit, even when the model is edited on another thread. A
+ * newer version is noticed on the next move and causes the cursor to play that version instead.
+ * A cursor over a {@link CompiledAnimation} keeps playing that version. The segments of the
+ * visible shapes are also kept in columns, so that sampling finds each attribute of every visible
+ * shape in a single pass.
+ */
+public final class PlaybackCursor {
+
+  private final ViewOnlyAnimationModel model;
+  private int tick;
+  private CompiledAnimation version;
+  private SegmentSchedule schedule;
+  private int nextEvent;
+  private int[] segments;
+  private BitSet visible;
+  private SegmentBatch batch;
+  private boolean layoutChanged;
+
+  /**
+   * A constructor that creates a cursor positioned before the start of the given model.
+   *
+   * @param model the model to be played back.
+   */
+  PlaybackCursor(ViewOnlyAnimationModel model) {
+    this.model = model;
+    resync();
+  }
+
+  /**
+   * A constructor that creates a cursor positioned before the start of an animation that never
+   * changes.
+   *
+   * @param schedule the compiled animation to be played back.
+   */
+  PlaybackCursor(SegmentSchedule schedule) {
+    this.model = null;
+    load(schedule);
+  }
+
+  /**
+   * Retrieves the tick this cursor is positioned at.
+   *
+   * @return an integer representing the current tick.
+   */
+  public int getTick() {
+    return this.tick;
+  }
+
+  /**
+   * Moves this cursor forward by one tick.
+   */
+  public void advance() {
+    seek(this.tick + 1);
+  }
+
+  /**
+   * Moves this cursor back to before the start of the animation.
+   */
+  public void restart() {
+    if (isStale()) {
+      resync();
+    }
+    else {
+      this.visible.clear();
+      Arrays.fill(this.segments, SegmentSchedule.END);
+      this.layoutChanged = true;
+      this.nextEvent = 0;
+      this.tick = -1;
+    }
+  }
+
+  /**
+   * Moves this cursor to the given tick. Moving forward costs time proportional to the number of
+   * segment boundaries passed, while moving backward rewinds to the start first.
+   *
+   * @param tick the tick to move to.
+   */
+  public void seek(int tick) {
+    if (tick < this.tick || isStale()) {
+      restart();
+    }
+    this.tick = tick;
+    int eventCount = this.schedule.getEventCount();
+    while (this.nextEvent < eventCount && this.schedule.getEventTick(this.nextEvent) <= tick) {
+      int shape = this.schedule.getEventShape(this.nextEvent);
+      int segment = this.schedule.getEventSegment(this.nextEvent);
+      this.segments[shape] = segment;
+      if (this.visible.get(shape) != (segment != SegmentSchedule.END)) {
+        this.visible.flip(shape);
+        this.layoutChanged = true;
+      }
+      else if (segment != SegmentSchedule.END && !this.layoutChanged) {
+        this.batch.update(shape, segment);
+      }
+      this.nextEvent++;
+    }
+  }
+
+  /**
+   * Writes the states of all visible shapes at the current tick into a frame buffer, replacing its
+   * previous contents. This gives the same result as
+   * {@link IViewOnlyAnimationModel#sampleInto} at the same tick.
+   *
+   * @param out the frame buffer that receives the shapes in drawing order.
+   * @throws IllegalArgumentException if the frame buffer is null.
+   */
+  public void sampleInto(FrameBuffer out) {
+    if (out == null) {
+      throw new IllegalArgumentException("Frame buffer cannot be null");
+    }
+    if (isStale()) {
+      seek(this.tick);
+    }
+    if (this.layoutChanged) {
+      this.batch.rebuild(this.visible, this.segments);
+      this.layoutChanged = false;
+    }
+    this.batch.sampleInto(this.tick, out);
+  }
+
+  // checks whether the model has published a new version since the cursor last looked, without
+  // handing out the latest version unless it is new
+  private boolean isStale() {
+    return this.model != null && this.version.getVersionStamp() != this.model.getVersionStamp();
+  }
+
+  // switches to the latest version after the model has been edited
+  private void resync() {
+    this.version = this.model.freeze();
+    load(this.version.getSchedule());
+  }
+
+  // starts playing a newly compiled schedule from the beginning
+  private void load(SegmentSchedule schedule) {
+    this.schedule = schedule;
+    this.segments = new int[schedule.getShapeCount()];
+    this.visible = new BitSet(schedule.getShapeCount());
+    this.batch = new SegmentBatch(schedule);
+    restart();
+  }
+}
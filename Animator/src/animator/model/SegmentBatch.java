@@ -0,0 +1,207 @@
+package animator.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A class representing the current segment of every visible shape of a playback, laid out in
+ * columns so that one attribute of all of the shapes can be found in a single pass. Each column
+ * holds one value per visible shape in drawing order: the tick its segment starts, the value of
+ * each attribute at that tick and the whole and fractional parts of the slope of each attribute.
+ * Sampling runs one tight loop per attribute and writes straight into the columns of a frame
+ * buffer. The few segments whose slopes are not exact are sampled one by one afterwards. A shape
+ * that holds still over its segment and was already in it at the last frame is marked unchanged
+ * in the frame buffer, and when every shape holds still like that a frame sampled into the same
+ * buffer as the last one is left as it is.
+ */
+final class SegmentBatch {
+
+  private static final int ATTRIBUTES = KeyFrameTrack.ATTRIBUTES;
+  private static final int RED = 4;
+  private static final int GREEN = 5;
+  private static final int BLUE = 6;
+
+  private final SegmentSchedule schedule;
+  private final int[] slots;
+  private final int[] shapes;
+  private final int[] segments;
+  private final String[] ids;
+  private final int[] kinds;
+  private final int[] starts;
+  private final int[][] initials;
+  private final int[][] wholes;
+  private final int[][] fractions;
+  private final int[] inexact;
+  private final int[][] colors;
+  private final boolean[] holds;
+  private final boolean[] loaded;
+  private int count;
+  private int inexactCount;
+  private int holdCount;
+  private boolean reloaded;
+  private FrameBuffer last;
+  private int lastWrites;
+
+  /**
+   * A constructor that creates an empty batch with room for every shape of a schedule.
+   *
+   * @param schedule the compiled animation whose shapes are sampled.
+   */
+  SegmentBatch(SegmentSchedule schedule) {
+    int capacity = schedule.getShapeCount();
+    this.schedule = schedule;
+    this.slots = new int[capacity];
+    this.shapes = new int[capacity];
+    this.segments = new int[capacity];
+    this.ids = new String[capacity];
+    this.kinds = new int[capacity];
+    this.starts = new int[capacity];
+    this.initials = new int[ATTRIBUTES][capacity];
+    this.wholes = new int[ATTRIBUTES][capacity];
+    this.fractions = new int[ATTRIBUTES][capacity];
+    this.inexact = new int[capacity];
+    this.colors = new int[3][capacity];
+    this.holds = new boolean[capacity];
+    this.loaded = new boolean[capacity];
+    this.count = 0;
+    this.inexactCount = 0;
+    this.holdCount = 0;
+    this.reloaded = true;
+    this.last = null;
+  }
+
+  /**
+   * Lays out the given shapes in drawing order, replacing the previous contents of this batch.
+   *
+   * @param visible the shapes to be sampled.
+   * @param currentSegments the segment each shape is in, indexed by shape.
+   */
+  void rebuild(BitSet visible, int[] currentSegments) {
+    Arrays.fill(this.slots, -1);
+    this.count = 0;
+    this.inexactCount = 0;
+    this.holdCount = 0;
+    // the shapes are laid out again, so none of them is where it was in the last frame
+    this.last = null;
+    for (int shape = visible.nextSetBit(0); shape >= 0; shape = visible.nextSetBit(shape + 1)) {
+      int slot = this.count++;
+      this.slots[shape] = slot;
+      this.shapes[slot] = shape;
+      this.ids[slot] = this.schedule.getId(shape);
+      this.kinds[slot] = this.schedule.getKind(shape);
+      this.inexact[slot] = 0;
+      this.holds[slot] = false;
+      load(slot, currentSegments[shape]);
+    }
+  }
+
+  /**
+   * Moves a shape that is already laid out in this batch to a new segment.
+   *
+   * @param shape the shape that moved.
+   * @param segment the index of the first KeyFrame of its new segment.
+   */
+  void update(int shape, int segment) {
+    int slot = this.slots[shape];
+    if (slot >= 0) {
+      load(slot, segment);
+    }
+  }
+
+  /**
+   * Writes the states of every shape of this batch at the given tick into a frame buffer,
+   * replacing its previous contents.
+   *
+   * @param tick the tick that the states should reflect.
+   * @param out the frame buffer that receives the shapes in drawing order.
+   */
+  void sampleInto(int tick, FrameBuffer out) {
+    // the last frame is still in the buffer if nothing else has written to it since
+    boolean continued = out == this.last && out.getWrites() == this.lastWrites;
+    if (continued && !this.reloaded && this.holdCount == this.count) {
+      Arrays.fill(out.getChanged(), 0, this.count, false);
+      return ;
+    }
+    out.resize(this.count);
+    System.arraycopy(this.ids, 0, out.getIds(), 0, this.count);
+    System.arraycopy(this.kinds, 0, out.getKinds(), 0, this.count);
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      Interpolation.getPointsAt(tick, this.starts, this.initials[attribute],
+              this.wholes[attribute], this.fractions[attribute], column(out, attribute),
+              this.count);
+    }
+
+    // attributes without an exact slope were given a slope of zero above
+    for (int slot = 0; this.inexactCount > 0 && slot < this.count; slot++) {
+      int mask = this.inexact[slot];
+      for (int attribute = 0; mask != 0; attribute++, mask >>= 1) {
+        if ((mask & 1) != 0) {
+          column(out, attribute)[slot] = this.schedule.getTrack(this.shapes[slot])
+                  .getValueAt(this.segments[slot], attribute, tick);
+        }
+      }
+    }
+
+    int[] packed = out.getColors();
+    int[] reds = column(out, RED);
+    int[] greens = column(out, GREEN);
+    int[] blues = column(out, BLUE);
+    for (int slot = 0; slot < this.count; slot++) {
+      packed[slot] = (reds[slot] << 16) | (greens[slot] << 8) | blues[slot];
+    }
+
+    boolean[] changed = out.getChanged();
+    for (int slot = 0; slot < this.count; slot++) {
+      changed[slot] = !continued || this.loaded[slot] || !this.holds[slot];
+      this.loaded[slot] = false;
+    }
+    this.reloaded = false;
+    this.last = out;
+    this.lastWrites = out.getWrites();
+  }
+
+  // finds the column an attribute is written to, colors being packed together at the end
+  private int[] column(FrameBuffer out, int attribute) {
+    switch (attribute) {
+      case 0:
+        return out.getXs();
+      case 1:
+        return out.getYs();
+      case 2:
+        return out.getWidths();
+      case 3:
+        return out.getHeights();
+      default:
+        return this.colors[attribute - RED];
+    }
+  }
+
+  // copies the start of a segment and its split slopes into the columns of a slot
+  private void load(int slot, int segment) {
+    KeyFrameTrack track = this.schedule.getTrack(this.shapes[slot]);
+    boolean hold = track.isHold(segment);
+    if (hold != this.holds[slot]) {
+      this.holdCount += hold ? 1 : -1;
+      this.holds[slot] = hold;
+    }
+    this.loaded[slot] = true;
+    this.reloaded = true;
+    int mask = 0;
+    this.segments[slot] = segment;
+    this.starts[slot] = track.getTick(segment);
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      int slope = track.getSlope(segment, attribute);
+      if (slope == Interpolation.INEXACT) {
+        mask |= 1 << attribute;
+        slope = 0;
+      }
+      this.initials[attribute][slot] = track.getValue(segment, attribute);
+      this.wholes[attribute][slot] = Interpolation.getWholePart(slope);
+      this.fractions[attribute][slot] = Interpolation.getFractionPart(slope);
+    }
+    if ((mask != 0) != (this.inexact[slot] != 0)) {
+      this.inexactCount += mask != 0 ? 1 : -1;
+    }
+    this.inexact[slot] = mask;
+  }
+}
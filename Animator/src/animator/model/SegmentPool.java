@@ -0,0 +1,166 @@
+package animator.model;
+
+import java.util.Arrays;
+
+/**
+ * A class representing the compiled segments shared by every KeyFrameTrack of a model. The part of
+ * a compiled segment that does not depend on where or when it starts, the slope of each attribute
+ * and whether it holds still, is stored once here for every distinct value it takes, and a track
+ * only keeps the index of the entry of each of its segments. Shapes that move alike, such as the
+ * discs of Towers of Hanoi or the particles of an explosion, therefore share one entry however
+ * many segments use it. Entries are found by their contents through an open addressing hash
+ * table. Entries are never changed or removed once added, so a track may keep reading the entries
+ * it was compiled against while new ones are added, from any thread that was handed the track
+ * safely. Entries that no segment uses any more are left behind instead, until the model moves
+ * its tracks to a new pool holding only the entries they use.
+ */
+final class SegmentPool {
+
+  private static final int ATTRIBUTES = KeyFrameTrack.ATTRIBUTES;
+  // the layout of an entry: the slope of each attribute, then whether the segment holds still
+  private static final int HOLD = ATTRIBUTES;
+  private static final int PAYLOAD = ATTRIBUTES + 1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  // replaced rather than written to once it is full, so that readers always see whole entries
+  private volatile int[] entries;
+  // the index of an entry plus one in each slot, or 0 in an empty slot
+  private int[] table;
+  private int size;
+
+  /**
+   * A constructor that creates an empty pool.
+   */
+  SegmentPool() {
+    this.entries = new int[INITIAL_CAPACITY * PAYLOAD];
+    this.table = new int[INITIAL_CAPACITY * 2];
+    this.size = 0;
+  }
+
+  /**
+   * Retrieves the number of distinct entries in this pool.
+   *
+   * @return an integer representing the number of entries.
+   */
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Counts the bytes taken by the entries of this pool and the table used to find them.
+   *
+   * @return the number of bytes.
+   */
+  long getBytes() {
+    return 4L * ((long) this.size * PAYLOAD + this.table.length);
+  }
+
+  /**
+   * Counts the bytes that the contents of an entry would take if each segment kept its own.
+   *
+   * @return the number of bytes.
+   */
+  static int getPayloadBytes() {
+    return 4 * PAYLOAD;
+  }
+
+  /**
+   * Retrieves the compiled slope of one attribute from an entry.
+   *
+   * @param entry the index of the entry.
+   * @param attribute the number of the attribute.
+   * @return the slope, or {@link Interpolation#INEXACT} if the floating point rule must be used.
+   */
+  int getSlope(int entry, int attribute) {
+    return this.entries[entry * PAYLOAD + attribute];
+  }
+
+  /**
+   * Checks whether the segments of an entry hold still.
+   *
+   * @param entry the index of the entry.
+   * @return whether every attribute has the same value at both ends of the segments.
+   */
+  boolean isHold(int entry) {
+    return this.entries[entry * PAYLOAD + HOLD] != 0;
+  }
+
+  /**
+   * Compiles a segment and finds the entry holding its slopes, adding it if there is none yet.
+   *
+   * @param period the length of the segment in ticks.
+   * @param values an array holding the values of every attribute at both ends of the segment.
+   * @param from the position in values of the first attribute at the start of the segment.
+   * @param to the position in values of the first attribute at the end of the segment.
+   * @return the index of the entry.
+   */
+  int intern(int period, int[] values, int from, int to) {
+    int[] entries = this.entries;
+    if ((this.size + 1) * PAYLOAD > entries.length) {
+      entries = Arrays.copyOf(entries, entries.length * 2);
+    }
+    // the candidate is compiled into the first unused entry, which no reader looks at
+    int offset = this.size * PAYLOAD;
+    int hold = 1;
+    for (int attribute = 0; attribute < ATTRIBUTES; attribute++) {
+      entries[offset + attribute] = Interpolation.slope(period, values[from + attribute],
+              values[to + attribute]);
+      if (values[from + attribute] != values[to + attribute]) {
+        hold = 0;
+      }
+    }
+    entries[offset + HOLD] = hold;
+    int mask = this.table.length - 1;
+    for (int slot = hash(entries, offset) & mask; ; slot = (slot + 1) & mask) {
+      int entry = this.table[slot] - 1;
+      if (entry < 0) {
+        this.table[slot] = this.size + 1;
+        break;
+      }
+      if (matches(entries, entry * PAYLOAD, offset)) {
+        this.entries = entries;
+        return entry;
+      }
+    }
+    // writing the array after the entry hands both to the readers of this pool
+    this.entries = entries;
+    this.size++;
+    if (this.size * 2 > this.table.length) {
+      rehash(entries);
+    }
+    return this.size - 1;
+  }
+
+  // whether two entries hold the same values
+  private static boolean matches(int[] entries, int offset, int other) {
+    for (int i = 0; i < PAYLOAD; i++) {
+      if (entries[offset + i] != entries[other + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // doubles the table, placing every entry again
+  private void rehash(int[] entries) {
+    this.table = new int[this.table.length * 2];
+    int mask = this.table.length - 1;
+    for (int entry = 0; entry < this.size; entry++) {
+      int slot = hash(entries, entry * PAYLOAD) & mask;
+      while (this.table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      this.table[slot] = entry + 1;
+    }
+  }
+
+  // hashes the contents of an entry, spreading the bits so that nearby slopes use far apart slots
+  private static int hash(int[] entries, int offset) {
+    int hash = 0;
+    for (int i = offset; i < offset + PAYLOAD; i++) {
+      hash = hash * 31 + entries[i];
+    }
+    hash *= 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,118 @@
+package animator.model;
+
+import java.util.Arrays;
+
+/**
+ * A class representing an animation compiled into a queue of events sorted by tick. Every segment
+ * between two neighbouring KeyFrames of a shape produces an event at the tick the segment starts,
+ * and every shape produces one more event on the tick after its last KeyFrame, when it stops being
+ * visible. Playing the events in order tells exactly which shapes are visible at a tick and which
+ * segment each of them is in, without looking at any other shape.
+ */
+final class SegmentSchedule {
+
+  /**
+   * The segment of an event that hides its shape.
+   */
+  static final int END = -1;
+
+  private final String[] ids;
+  private final int[] kinds;
+  private final KeyFrameTrack[] tracks;
+  private final int[] eventTicks;
+  private final int[] eventShapes;
+  private final int[] eventSegments;
+
+  /**
+   * A constructor that compiles the given shapes. Shapes are numbered by their position in the
+   * arrays, which is also the order they are drawn in. The arrays are kept rather than copied.
+   *
+   * @param ids the unique identifier of each shape.
+   * @param kinds the kind of each shape.
+   * @param tracks the KeyFrames of each shape.
+   */
+  SegmentSchedule(String[] ids, int[] kinds, KeyFrameTrack[] tracks) {
+    int shapeCount = ids.length;
+    this.ids = ids;
+    this.kinds = kinds;
+    this.tracks = tracks;
+    int eventCount = 0;
+    for (int i = 0; i < shapeCount; i++) {
+      if (this.tracks[i].size() > 1) {
+        eventCount += this.tracks[i].size();
+      }
+    }
+
+    // events are created shape by shape with segments in order, so sorting by tick and then by
+    // creation order makes the later of two segments starting on the same tick win
+    int[] shapes = new int[eventCount];
+    int[] segments = new int[eventCount];
+    long[] keys = new long[eventCount];
+    int event = 0;
+    for (int i = 0; i < shapeCount; i++) {
+      KeyFrameTrack track = this.tracks[i];
+      int size = track.size();
+      if (size <= 1) {
+        continue ;
+      }
+      for (int segment = 0; segment < size - 1; segment++) {
+        keys[event] = sortKey(track.getTick(segment), event);
+        shapes[event] = i;
+        segments[event] = segment;
+        event++;
+      }
+      keys[event] = sortKey(track.getTick(size - 1) + 1L, event);
+      shapes[event] = i;
+      segments[event] = END;
+      event++;
+    }
+    Arrays.sort(keys);
+
+    this.eventTicks = new int[eventCount];
+    this.eventShapes = new int[eventCount];
+    this.eventSegments = new int[eventCount];
+    for (int e = 0; e < eventCount; e++) {
+      int created = (int) keys[e];
+      this.eventTicks[e] = (int) Math.min(keys[e] >> 32, Integer.MAX_VALUE);
+      this.eventShapes[e] = shapes[created];
+      this.eventSegments[e] = segments[created];
+    }
+  }
+
+  // orders events by tick first and creation order second
+  private static long sortKey(long tick, int created) {
+    return (Math.min(tick, Integer.MAX_VALUE) << 32) | created;
+  }
+
+  int getShapeCount() {
+    return this.ids.length;
+  }
+
+  int getEventCount() {
+    return this.eventTicks.length;
+  }
+
+  int getEventTick(int event) {
+    return this.eventTicks[event];
+  }
+
+  int getEventShape(int event) {
+    return this.eventShapes[event];
+  }
+
+  int getEventSegment(int event) {
+    return this.eventSegments[event];
+  }
+
+  String getId(int shape) {
+    return this.ids[shape];
+  }
+
+  int getKind(int shape) {
+    return this.kinds[shape];
+  }
+
+  KeyFrameTrack getTrack(int shape) {
+    return this.tracks[shape];
+  }
+}
@@ -1,38 +1,74 @@
 package animator.model;
 
 import java.awt.Dimension;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 /**
  * A class that represents a viewable animation, keeping track of shapes and how they are
  * commanded to move, change size, and/or change color. This class contains methods used to view
- * the data of a model, but not mutate it.
+ * the data of a model, but not mutate it. Each shape identifier is given a handle the first time
+ * it is declared, which is its index in the lists holding the names, shapes, commands and
+ * KeyFrames of every shape. The identifiers are only hashed once per call, and everything else
+ * works on the handles. A removed shape leaves an empty entry behind, and the empty entries are
+ * cleared out once they outnumber the shapes left. After every edit the model publishes a version
+ * of itself, which shares every shape that was not edited with the version before it. Versions are
+ * counted in generations, and a new generation starts whenever the latest version is handed out by
+ * {@link #freeze()} or to a cursor. The KeyFrames and commands of a shape are copied before the
+ * first edit of each generation, and edited in place for the rest of it, so a version that has
+ * been handed out never changes while one that nobody has seen costs nothing to replace. Listeners
+ * are told about each change once its version has been published.
  */
 public class ViewOnlyAnimationModel implements IViewOnlyAnimationModel {
 
-  protected Map<String, IViewOnlyShape> shapes;
-  protected Map<String, List<ICommand>> commands;
-  protected Map<String, List<IKeyFrame>> keyframes;
-  protected List<String> ids;
+  protected Map<String, Integer> handles;
+  protected List<String> names;
+  protected List<IViewOnlyShape> shapes;
+  protected List<List<ICommand>> commands;
+  protected List<KeyFrameTrack> keyframes;
+  protected int removed;
+  protected int compactions;
+  private final List<String> idsView;
   protected int left;
   protected int top;
   protected int width;
   protected int height;
   protected boolean screenSet;
+  protected int finalTick;
+  protected boolean finalTickDirty;
+  private final AtomicReference<CompiledAnimation> published;
+  // the number of versions that were handed out, and the latest version already counted
+  private int generation;
+  private CompiledAnimation counted;
+  private final List<IModelListener> listeners;
 
   /**
    * No parameter constructor that instantiates the lists to null and states that the screen has
    * not been set yet.
    */
   public ViewOnlyAnimationModel() {
-    this.shapes = new HashMap<>();
-    this.commands = new HashMap<>();
-    this.keyframes = new HashMap<>();
-    this.ids = new ArrayList<>();
+    this.handles = new HashMap<>();
+    this.names = new ArrayList<>();
+    this.shapes = new ArrayList<>();
+    this.commands = new ArrayList<>();
+    this.keyframes = new ArrayList<>();
+    this.removed = 0;
+    this.compactions = 0;
+    this.idsView = new IdsView();
     this.screenSet = false;
+    this.finalTick = -1;
+    this.finalTickDirty = false;
+    this.published = new AtomicReference<>(new CompiledAnimation(this));
+    this.generation = 0;
+    this.counted = null;
+    this.listeners = new CopyOnWriteArrayList<>();
   }
 
   @Override
@@ -45,6 +81,7 @@ public class ViewOnlyAnimationModel implements IViewOnlyAnimationModel {
     this.width = width;
     this.height = height;
     this.screenSet = true;
+    publish(-1);
   }
 
   @Override
@@ -79,29 +116,24 @@ public class ViewOnlyAnimationModel implements IViewOnlyAnimationModel {
 
   @Override
   public IViewOnlyShape getShape(String id) {
-    if (!this.shapes.containsKey(id)) {
-      throw new IllegalArgumentException();
-    }
-    return this.shapes.get(id).getCopy();
+    return this.shapes.get(getHandle(id)).getCopy();
   }
 
   @Override
   public List<IViewOnlyShape> getShapes() {
     List<IViewOnlyShape> shapes = new ArrayList<>();
-    for (Map.Entry<String, IViewOnlyShape> shapeSet: this.shapes.entrySet()) {
-      IViewOnlyShape temp = shapeSet.getValue();
-      shapes.add(temp.getCopy());
+    for (IViewOnlyShape temp: this.shapes) {
+      if (temp != null) {
+        shapes.add(temp.getCopy());
+      }
     }
     return shapes;
   }
 
   @Override
   public List<ICommand> getCommands(String id) {
-    if (!this.commands.containsKey(id)) {
-      throw new IllegalArgumentException();
-    }
     List<ICommand> commands = new ArrayList<>();
-    for (ICommand c: this.commands.get(id)) {
+    for (ICommand c: this.commands.get(getHandle(id))) {
       commands.add(c.getCopy());
     }
     return commands;
@@ -110,88 +142,395 @@ public class ViewOnlyAnimationModel implements IViewOnlyAnimationModel {
   @Override
   public List<String> getIds() {
     List<String> result = new ArrayList<>();
-    for (String id: this.ids) {
-      result.add(id);
+    for (String id: this.names) {
+      if (id != null) {
+        result.add(id);
+      }
     }
     return result;
   }
 
+  @Override
+  public List<String> getIdsView() {
+    return this.idsView;
+  }
+
+  @Override
+  public List<ICommand> getCommandsView(String id) {
+    return Collections.unmodifiableList(this.commands.get(getHandle(id)));
+  }
+
+  @Override
+  public void forEachShape(BiConsumer<String, IViewOnlyShape> action) {
+    for (int handle = 0; handle < this.names.size(); handle++) {
+      if (this.names.get(handle) != null) {
+        action.accept(this.names.get(handle), this.shapes.get(handle));
+      }
+    }
+  }
+
+  @Override
+  public void forEachKeyFrame(String id, KeyFrameConsumer action) {
+    KeyFrameTrack track = this.keyframes.get(getHandle(id));
+    for (int i = 0; i < track.size(); i++) {
+      action.accept(track.getTick(i), track.getX(i), track.getY(i), track.getWidth(i),
+              track.getHeight(i), track.getRed(i), track.getGreen(i), track.getBlue(i));
+    }
+  }
+
+  @Override
+  public void forEachKeyFrame(String id, int groups, KeyFrameConsumer action) {
+    this.keyframes.get(getHandle(id)).forEachNeeded(groups, action);
+  }
+
   @Override
   public int getFinalTick() {
-    int tempMax = -1;
-    for (String id: this.ids) {
-      for (ICommand c: this.getCommands(id)) {
-        if (c.getEndTime() >= tempMax) {
-          tempMax = c.getEndTime();
+    return refreshFinalTick();
+  }
+
+  /**
+   * Works out the final tick again if it has been marked dirty. Unlike {@link #getFinalTick}, this
+   * method cannot be overridden, so it is safe to call while the model is being constructed.
+   *
+   * @return the final tick of the animation.
+   */
+  protected final int refreshFinalTick() {
+    if (this.finalTickDirty) {
+      int tempMax = -1;
+      for (int handle = 0; handle < this.names.size(); handle++) {
+        if (this.names.get(handle) != null) {
+          tempMax = Math.max(tempMax, getEndTime(handle));
         }
       }
+      this.finalTick = tempMax;
+      this.finalTickDirty = false;
+    }
+    return this.finalTick;
+  }
+
+  /**
+   * Retrieves the end time of the last command of a shape. Commands of a shape are always kept in
+   * order, so this is the latest tick reached by the shape.
+   *
+   * @param handle the handle of the shape.
+   * @return the end time of the last command, or -1 if the shape has no commands.
+   */
+  protected int getEndTime(int handle) {
+    List<ICommand> tempCommands = this.commands.get(handle);
+    if (tempCommands.size() == 0) {
+      return -1;
+    }
+    return tempCommands.get(tempCommands.size() - 1).getEndTime();
+  }
+
+  /**
+   * Updates the final tick after the end time of a shape has changed. The stored final tick is
+   * always at least the real final tick. When the shape that held the maximum moves backwards,
+   * the final tick is marked dirty and recomputed on the next read.
+   *
+   * @param oldEnd the end time of the shape before the change, or -1 if it had none.
+   * @param newEnd the end time of the shape after the change, or -1 if it has none.
+   */
+  protected void updateFinalTick(int oldEnd, int newEnd) {
+    if (newEnd > this.finalTick) {
+      this.finalTick = newEnd;
+      this.finalTickDirty = false;
+    }
+    else if (newEnd < oldEnd && oldEnd == this.finalTick) {
+      this.finalTickDirty = true;
     }
-    return tempMax;
   }
 
   @Override
   public List<IKeyFrame> getKeyFrames(String id) {
+    KeyFrameTrack track = this.keyframes.get(getHandle(id));
     List<IKeyFrame> temp = new ArrayList<>();
-    for (IKeyFrame k: this.keyframes.get(id)) {
-      temp.add(k.getCopy());
+    for (int i = 0; i < track.size(); i++) {
+      temp.add(track.getKeyFrame(i));
     }
     return temp;
   }
 
   @Override
   public List<IShape> getShapesAtTick(int tick) {
+    return getShapesAtTick(tick, true);
+  }
+
+  /**
+   * Retrieves the states of all mutable shapes at given tick, and stores them back into the model
+   * if asked to.
+   *
+   * @param tick integer representing which tick the shapes should be set to.
+   * @param store whether the state of each shape is kept as the shape returned by
+   *              {@link #getShape}.
+   * @return a list of mutable shapes representing all of the shapes at the chosen tick.
+   */
+  protected List<IShape> getShapesAtTick(int tick, boolean store) {
     List<IShape> temp = new ArrayList<>();
-    for (String id: this.getIds()) {
-      IViewOnlyShape tempShape = this.getShape(id);
-      List<IKeyFrame> tempFrames = this.getKeyFrames(id);
-      if (tempFrames.size() <= 1) {
+    for (int handle = 0; handle < this.names.size(); handle++) {
+      KeyFrameTrack track = this.keyframes.get(handle);
+      int segment = track == null ? -1 : track.findSegment(tick);
+      if (segment < 0) {
         continue ;
       }
-      IShape shape = tempShape.getMutableCopy();
-      for (int i = 0; i < tempFrames.size(); i++) {
-        if (i == tempFrames.size() - 1) {
-          continue ;
-        }
-        else if (tick >= tempFrames.get(i).getTick() && tick <= tempFrames.get(i + 1).getTick()) {
-          IKeyFrame first = tempFrames.get(i);
-          IKeyFrame second = tempFrames.get(i + 1);
-          IShape newShape = first.getState(tick, second, shape);
-          temp.add(newShape);
-          this.shapes.put(id, newShape);
-        }
+      IShape newShape = track.getState(segment, tick, this.shapes.get(handle).getMutableCopy());
+      temp.add(newShape);
+      if (store) {
+        this.shapes.set(handle, newShape.getCopy());
       }
     }
     return temp;
   }
 
   @Override
-  public String getIdOfTopShape(int tick, int x, int y) {
-    List<IShape> tempShapes = this.getShapesAtTick(tick);
-    List<IShape> shapesAtPos = new ArrayList<>();
-    for (IShape s: tempShapes) {
-      if (s.inShape(x + this.left, y + this.top)) {
-        shapesAtPos.add(s);
+  public void sampleInto(int tick, FrameBuffer out) {
+    if (out == null) {
+      throw new IllegalArgumentException("Frame buffer cannot be null");
+    }
+    out.clear();
+    for (int handle = 0; handle < this.names.size(); handle++) {
+      KeyFrameTrack track = this.keyframes.get(handle);
+      int segment = track == null ? -1 : track.findSegment(tick);
+      if (segment >= 0) {
+        track.getState(segment, tick, this.names.get(handle),
+                FrameBuffer.kindOf(this.shapes.get(handle)), out);
       }
     }
+  }
+
+  @Override
+  public PlaybackCursor createCursor() {
+    return new PlaybackCursor(this);
+  }
+
+  @Override
+  public CompiledAnimation freeze() {
+    CompiledAnimation version = takeLatestVersion();
+    if (version == null) {
+      // an edit closed the latest version and then failed, leaving the model as it was
+      version = new CompiledAnimation(this);
+      version.take();
+      this.published.set(version);
+    }
+    return version;
+  }
+
+  @Override
+  public long getVersionStamp() {
+    // the stamp of a version never changes, so it may be read while an edit is running
+    return this.published.get().getVersionStamp();
+  }
+
+  @Override
+  public String getIdOfTopShape(int tick, int x, int y) {
+    // the latest version keeps the index of the last frame asked about until the model changes
+    return getLatestVersion().getIdOfTopShape(tick, x, y);
+  }
+
+  @Override
+  public List<String> shapesActiveBetween(int startTick, int endTick) {
+    // the latest version keeps the lifetimes of its shapes until the model changes
+    return getLatestVersion().shapesActiveBetween(startTick, endTick);
+  }
+
+  /**
+   * Retrieves the latest published version without handing it out, so the next edit may still
+   * change what it holds in place. It must only be read while no edit is running, and must not be
+   * kept once the method reading it returns.
+   *
+   * @return the latest version.
+   */
+  protected final CompiledAnimation getLatestVersion() {
+    return this.published.get();
+  }
+
+  /**
+   * Hands out the latest published version, after which the model never changes what it holds.
+   * Unlike {@link #freeze()}, this method never waits or changes the model, so it is safe to call
+   * from any thread at any time.
+   *
+   * @return the latest version, or null if an edit has closed it and not yet replaced it.
+   */
+  protected final CompiledAnimation takeLatestVersion() {
+    CompiledAnimation version = this.published.get();
+    return version.take() ? version : null;
+  }
+
+  @Override
+  public void addListener(IModelListener listener) {
+    checkInvalidInputs(listener == null);
+    this.listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(IModelListener listener) {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Tells every listener that a shape was added.
+   *
+   * @param id unique shape identifier.
+   */
+  protected void fireShapeAdded(String id) {
+    for (IModelListener listener : this.listeners) {
+      listener.shapeAdded(id);
+    }
+  }
+
+  /**
+   * Tells every listener that a shape was removed.
+   *
+   * @param id unique shape identifier.
+   */
+  protected void fireShapeRemoved(String id) {
+    for (IModelListener listener : this.listeners) {
+      listener.shapeRemoved(id);
+    }
+  }
+
+  /**
+   * Tells every listener that the KeyFrames or commands of a shape changed between two ticks.
+   *
+   * @param id unique shape identifier.
+   * @param startTick the first tick at which the shape may look different.
+   * @param endTick the last tick at which the shape may look different.
+   */
+  protected void fireKeyFramesChanged(String id, int startTick, int endTick) {
+    for (IModelListener listener : this.listeners) {
+      listener.keyFramesChanged(id, startTick, endTick);
+    }
+  }
 
-    if (shapesAtPos.size() == 0) {
+  /**
+   * Finds the handle of a shape.
+   *
+   * @param id unique shape identifier.
+   * @return the handle of the shape.
+   * @throws IllegalArgumentException if there is no shape with the given identifier.
+   */
+  protected int getHandle(String id) {
+    Integer handle = this.handles.get(id);
+    if (handle == null) {
       throw new IllegalArgumentException();
     }
+    return handle;
+  }
+
+  /**
+   * Clears out the entries left behind by removed shapes, moving every later shape forward and
+   * giving it a new handle. The order of the remaining shapes is unchanged.
+   */
+  protected void compact() {
+    if (this.removed == 0) {
+      return ;
+    }
+    int live = 0;
+    for (int handle = 0; handle < this.names.size(); handle++) {
+      String id = this.names.get(handle);
+      if (id == null) {
+        continue ;
+      }
+      this.names.set(live, id);
+      this.shapes.set(live, this.shapes.get(handle));
+      this.commands.set(live, this.commands.get(handle));
+      this.keyframes.set(live, this.keyframes.get(handle));
+      this.handles.put(id, live);
+      live++;
+    }
+    int size = this.names.size();
+    this.names.subList(live, size).clear();
+    this.shapes.subList(live, size).clear();
+    this.commands.subList(live, size).clear();
+    this.keyframes.subList(live, size).clear();
+    this.removed = 0;
+    this.compactions++;
+    // published versions are indexed by handle, so the handles given out again need a new one
+    seal();
+    this.published.set(new CompiledAnimation(this));
+  }
+
+  /**
+   * Inserts a shape before the shape with the given handle, moving it and every later shape back
+   * and giving them new handles. The order of the other shapes is unchanged.
+   *
+   * @param handle the handle the inserted shape is given, or the number of handles to append it.
+   * @param id unique shape identifier.
+   * @param shape the declared shape.
+   * @param track the KeyFrames of the shape, which must not be changed.
+   * @param commandList the commands of the shape, which must not be changed.
+   */
+  protected void insertShape(int handle, String id, IViewOnlyShape shape, KeyFrameTrack track,
+                             List<ICommand> commandList) {
+    this.names.add(handle, id);
+    this.shapes.add(handle, shape);
+    this.commands.add(handle, commandList);
+    this.keyframes.add(handle, track);
+    for (int later = handle; later < this.names.size(); later++) {
+      if (this.names.get(later) != null) {
+        this.handles.put(this.names.get(later), later);
+      }
+    }
+    updateFinalTick(-1, getEndTime(handle));
+    seal();
+    this.published.set(new CompiledAnimation(this));
+  }
+
+  /**
+   * Publishes a new version of this model after a single shape was added, edited or removed.
+   *
+   * @param handle the handle of the shape that changed, or -1 if no shape changed.
+   */
+  protected void publish(int handle) {
+    seal();
+    this.published.set(this.published.get().update(this, handle));
+  }
 
-    return findId(shapesAtPos);
+  /**
+   * Makes sure the KeyFrames and commands of a shape can be changed, by copying them unless they
+   * were already copied in the current generation. Every version that holds them was then
+   * published after the copy and has never been handed out, so they are changed in place.
+   *
+   * @param handle the handle of the shape about to be edited.
+   */
+  protected void unshare(int handle) {
+    seal();
+    KeyFrameTrack track = this.keyframes.get(handle);
+    if (track.getGeneration() != this.generation) {
+      this.keyframes.set(handle, track.copy(this.generation));
+      this.commands.set(handle, new ArrayList<>(this.commands.get(handle)));
+    }
   }
 
-  private String findId(List<IShape> shapesAtPos) {
-    int size = shapesAtPos.size();
-    IShape topShape = shapesAtPos.get(size - 1);
+  /**
+   * Moves the KeyFrames of every shape to another pool of compiled segments and publishes a
+   * version holding them. Each track is copied, so the versions published before keep reading
+   * the pool they were compiled against. A copy may be changed in place only if its track could,
+   * since the commands of the shape stay shared with those versions.
+   *
+   * @param pool the pool to move to.
+   */
+  protected void movePool(SegmentPool pool) {
+    seal();
+    for (int handle = 0; handle < this.keyframes.size(); handle++) {
+      KeyFrameTrack track = this.keyframes.get(handle);
+      if (track != null) {
+        this.keyframes.set(handle, track.copy(track.getGeneration(), pool));
+      }
+    }
+    this.published.set(new CompiledAnimation(this));
+  }
 
-    for (String id: ids) {
-      IViewOnlyShape s = getShape(id);
-      if (s.getMutableCopy().equals(topShape)) {
-        return id;
+  // closes the latest version before it is changed or replaced, so that it is never handed out
+  // afterwards, or starts a new generation if it has already been handed out
+  private void seal() {
+    CompiledAnimation version = this.published.get();
+    if (version != this.counted) {
+      this.counted = version;
+      if (!version.close()) {
+        this.generation++;
       }
     }
-    return null;
   }
 
   private void checkIfScreenSet(boolean b) {
@@ -206,4 +545,18 @@ public class ViewOnlyAnimationModel implements IViewOnlyAnimationModel {
     }
   }
 
+  // a read-only view of the identifiers of the shapes in the order they were added
+  private final class IdsView extends AbstractList<String> {
+
+    @Override
+    public String get(int index) {
+      // the latest version already skips removed shapes, so reading never renumbers the handles
+      return getLatestVersion().getIdsView().get(index);
+    }
+
+    @Override
+    public int size() {
+      return names.size() - removed;
+    }
+  }
 }
@@ -23,6 +23,10 @@ public class AnimationReader {
    * eight numbers giving the time, the x and y coordinates, the width and height,
    * and the red, green and blue color values at the start of the motion; followed by 
    * eight numbers for the end of the motion.  See {@link AnimationBuilder#addMotion}</li>
+   * <li>Keyframe lines: the keyword "keyframe" followed by an identifier giving the name
+   * of the shape, and 8 integers giving the time, the x and y coordinates, the width and height,
+   * and the red, green and blue color values of the shape at that time.
+   * See {@link AnimationBuilder#addKeyframe}</li>
    * </ul>
    * </p>
    *
@@ -49,6 +53,9 @@ public class AnimationReader {
         case "motion":
           readMotion(s, builder);
           break;
+        case "keyframe":
+          readKeyframe(s, builder);
+          break;
         default:
           throw new IllegalStateException("Unexpected keyword: " + word + s.nextLine());
       }
@@ -107,6 +114,28 @@ public class AnimationReader {
             vals[8], vals[9], vals[10], vals[11], vals[12], vals[13], vals[14], vals[15]);
   }
   
+  private static <Doc> void readKeyframe(Scanner s, AnimationBuilder<Doc> builder) {
+    String[] fieldNames = new String[]{
+      "time",
+      "x-coordinate", "y-coordinate",
+      "width", "height",
+      "red value", "green value", "blue value",
+    };
+    int[] vals = new int[8];
+    String name;
+    if (s.hasNext()) {
+      name = s.next();
+    } else {
+      throw new IllegalStateException(
+              "Keyframe: Expected a shape name, but no more input available");
+    }
+    for (int i = 0; i < 8; i++) {
+      vals[i] = getInt(s, "Keyframe", fieldNames[i]);
+    }
+    builder.addKeyframe(name,
+            vals[0], vals[1], vals[2], vals[3], vals[4], vals[5], vals[6], vals[7]);
+  }
+
   private static int getInt(Scanner s, String label, String fieldName) {
     if (s.hasNextInt()) {
       return s.nextInt();
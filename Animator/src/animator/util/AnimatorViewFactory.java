@@ -1,6 +1,6 @@
 package animator.util;
 
-import animator.model.IAnimationModel;
+import animator.model.IViewOnlyAnimationModel;
 import animator.view.EditorView;
 import animator.view.IAnimationView;
 import animator.view.SVGView;
@@ -17,10 +17,11 @@ public class AnimatorViewFactory {
    * Returns a view based on given specifier. Specifier can either be "text", "svg", "visual"
    * or "edit."
    * @param type String representing type of view to create.
-   * @param model model object representing animation model.
+   * @param model model object representing animation model, which may be a compiled snapshot for
+   *              every view other than "edit."
    * @return IAnimationView object representing created view.
    */
-  public IAnimationView create(String type, IAnimationModel model) {
+  public IAnimationView create(String type, IViewOnlyAnimationModel model) {
     IAnimationView result;
     switch (type.toLowerCase()) {
       case "visual":
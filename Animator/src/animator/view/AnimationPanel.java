@@ -7,17 +7,23 @@ import java.awt.Graphics;
 import javax.swing.JPanel;
 
 
-import animator.model.IShape;
+import animator.model.CompiledAnimation;
+import animator.model.FrameBuffer;
 import animator.model.IViewOnlyAnimationModel;
+import animator.model.PlaybackCursor;
 
 /**
  * A public class representing the panel where shapes will be drawn. This class overrides
- * the paintComponent method in order to draw the shapes.
+ * the paintComponent method in order to draw the shapes. Every frame is drawn from the latest
+ * version published by the model, so a frame never mixes the states before and after an edit.
  */
 public class AnimationPanel extends JPanel {
 
   private IViewOnlyAnimationModel model;
   private int tick;
+  private CompiledAnimation version;
+  private PlaybackCursor cursor;
+  private final FrameBuffer frame;
 
   /**
    * Public constructor takes in an animation model and initializes fields and sets background
@@ -30,6 +36,9 @@ public class AnimationPanel extends JPanel {
     checkForInvalidInputs(model == null);
     this.setBackground(Color.WHITE);
     this.model = model;
+    this.version = model.freeze();
+    this.cursor = this.version.createCursor();
+    this.frame = new FrameBuffer();
   }
 
   private void checkForInvalidInputs(boolean b) {
@@ -42,13 +51,34 @@ public class AnimationPanel extends JPanel {
   public void paintComponent(Graphics g) {
     super.paintComponent(g);
     Graphics2D g2 = (Graphics2D) g;
-    g2.translate(-model.getLeft(), -model.getTop());
+    // a snapshot is only taken once the model has published a new version, since taking one
+    // makes the next edit copy what it changes rather than change it in place
+    if (this.model.getVersionStamp() != this.version.getVersionStamp()) {
+      this.version = this.model.freeze();
+      this.cursor = this.version.createCursor();
+    }
+    g2.translate(-this.version.getLeft(), -this.version.getTop());
     drawShapes(g2);
   }
 
   private void drawShapes(Graphics2D g2) {
-    for (IShape s: model.getShapesAtTick(this.tick)) {
-      s.draw(g2);
+    this.cursor.seek(this.tick);
+    this.cursor.sampleInto(this.frame);
+    Color color = null;
+    for (int i = 0; i < this.frame.size(); i++) {
+      int rgb = this.frame.getColor(i);
+      if (color == null || color.getRGB() != (0xFF000000 | rgb)) {
+        color = new Color(rgb);
+        g2.setColor(color);
+      }
+      if (this.frame.getKind(i) == FrameBuffer.OVAL) {
+        g2.fillOval(this.frame.getX(i), this.frame.getY(i), this.frame.getWidth(i),
+                this.frame.getHeight(i));
+      }
+      else {
+        g2.fillRect(this.frame.getX(i), this.frame.getY(i), this.frame.getWidth(i),
+                this.frame.getHeight(i));
+      }
     }
   }
 
@@ -102,6 +102,8 @@ public class EditorView extends JFrame implements IEditorView, ActionListener {
     makeButton(buttonSize, editorPanel, "Toggle Looping", "looping");
     makeButton(buttonSize, editorPanel, "Add Rectangle", "addRectangle");
     makeButton(buttonSize, editorPanel, "Add Oval", "addOval");
+    makeButton(buttonSize, editorPanel, "Undo", "undo");
+    makeButton(buttonSize, editorPanel, "Redo", "redo");
 
     idField.setPreferredSize(new Dimension(100, 60));
     JLabel idLabel = new JLabel("Enter new shape ID:");
@@ -1,21 +1,36 @@
 package animator.view;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import animator.controller.IAnimationController;
 import animator.controller.SVGViewController;
 import animator.model.IAnimationModel;
 import animator.model.ICommand;
+import animator.model.IModelListener;
 import animator.model.IViewOnlyAnimationModel;
+import animator.model.IViewOnlyShape;
+import animator.model.MotionCommand;
 
 /**
- * A public class representing the SVG view. This class returns an animation in SVG format.
+ * A public class representing the SVG view. This class returns an animation in SVG format. The
+ * element built for each shape is kept until the model says that the shape has changed, so
+ * viewing the animation again after an edit only rebuilds the elements of the edited shapes. The
+ * view only listens to the model from the first time it is viewed until it is closed, so a view
+ * that is never viewed or has been closed is not kept alive by the model. The position, size and
+ * color of a shape are each animated from the KeyFrames that group of attributes needs, chosen
+ * from the one track the model keeps, so a change of color alone does not split a movement into
+ * two animations.
  */
-public class SVGView implements IAnimationView {
+public class SVGView implements IAnimationView, IModelListener {
 
   private IViewOnlyAnimationModel model;
   private StringBuilder svgOutput;
   private int timePerTick;
+  private final Map<String, String> elements;
+  private boolean listening;
 
   /**
    * A public constructor for an SVG view. Initializes fields and prepares output.
@@ -27,71 +42,153 @@ public class SVGView implements IAnimationView {
     checkForInvalidInputs(model == null);
     this.model = model;
     this.svgOutput = new StringBuilder();
+    this.elements = new HashMap<>();
+    this.listening = false;
   }
 
   @Override
   public void view(int speed) {
     checkForInvalidInputs(speed < 1);
-    this.timePerTick = 1000 / speed;
+    // the elements are only kept while the model tells this view about changes
+    if (!this.listening) {
+      this.model.addListener(this);
+      this.listening = true;
+    }
+    // the times in every element depend on the speed
+    if (this.timePerTick != 1000 / speed) {
+      this.elements.clear();
+      this.timePerTick = 1000 / speed;
+    }
 
-    String type;
+    svgOutput.setLength(0);
     svgOutput.append("<svg width=\"" + model.getWidth() + "\" height=\""
             + model.getHeight() + "\" version=\"1.1\"\n    "
             + "xmlns=\"http://www.w3.org/2000/svg\">\n");
 
-    for (String id: model.getIds()) {
-      List<ICommand> commands = model.getCommands(id);
-      switch (model.getShape(id).toString()) {
-        case "rectangle":
-          type = "rect";
-          break;
-        case "oval":
-          type = "ellipse";
-          break;
-        default:
-          throw new IllegalArgumentException();
-      }
-      this.svgOutput.append("<" + type + " id=\"" + id);
-      if (commands.size() == 0) {
-        svgOutput.append(this.buildStartNoCommands(type));
-      }
-      else {
-        svgOutput.append(this.buildStartState(commands.get(0), type));
-      }
-      svgOutput.append(this.buildCommands(commands, type));
-      svgOutput.append("</" + type + ">\n\n");
-    }
+    model.forEachShape(this::appendShape);
     svgOutput.append("</svg>");
   }
 
+  /**
+   * Stops listening to the model and forgets the elements built so far. The view can still be
+   * viewed afterwards, in which case it builds every element again and listens once more.
+   */
+  public void close() {
+    this.model.removeListener(this);
+    this.listening = false;
+    this.elements.clear();
+  }
+
+  // appends the element of a single shape, building it again only if the shape has changed
+  private void appendShape(String id, IViewOnlyShape shape) {
+    String element = this.elements.get(id);
+    if (element == null) {
+      element = buildShape(id, shape);
+      this.elements.put(id, element);
+    }
+    this.svgOutput.append(element);
+  }
+
+  @Override
+  public void shapeAdded(String id) {
+    this.elements.remove(id);
+  }
+
+  @Override
+  public void shapeRemoved(String id) {
+    this.elements.remove(id);
+  }
+
+  @Override
+  public void keyFramesChanged(String id, int startTick, int endTick) {
+    this.elements.remove(id);
+  }
+
+  // builds the SVG element for a single shape and all of its commands
+  private String buildShape(String id, IViewOnlyShape shape) {
+    StringBuilder element = new StringBuilder();
+    String type;
+    switch (shape.toString()) {
+      case "rectangle":
+        type = "rect";
+        break;
+      case "oval":
+        type = "ellipse";
+        break;
+      default:
+        throw new IllegalArgumentException();
+    }
+    // the centre of an ellipse moves when its size changes as well
+    int position = type.equals("rect") ? IViewOnlyAnimationModel.POSITION
+            : IViewOnlyAnimationModel.POSITION | IViewOnlyAnimationModel.SIZE;
+    List<ICommand> positions = buildTrack(id, position);
+    List<ICommand> sizes = buildTrack(id, IViewOnlyAnimationModel.SIZE);
+    List<ICommand> colors = buildTrack(id, IViewOnlyAnimationModel.COLOR);
+    element.append("<" + type + " id=\"" + id);
+    // every track starts at the first KeyFrame, so the start state comes from the same KeyFrames
+    // as the animations
+    if (positions.size() == 0) {
+      element.append(this.buildStartNoCommands(type));
+    }
+    else {
+      element.append(this.buildStartState(positions.get(0), type));
+    }
+    element.append(this.buildAnimations(type, positions, sizes, colors));
+    element.append("</" + type + ">\n\n");
+    return element.toString();
+  }
+
   private void checkForInvalidInputs(boolean b) {
     if (b) {
       throw new IllegalArgumentException();
     }
   }
 
-  // builds SVG formatted commands for each shape
-  private String buildCommands(List<ICommand> commands, String type) {
+  // builds SVG formatted animations of a shape, one stream for each group of attributes
+  private String buildAnimations(String type, List<ICommand> positions, List<ICommand> sizes,
+                                 List<ICommand> colors) {
     StringBuilder output = new StringBuilder();
-    String animationStart;
     String animationEnd = "\" fill=\"freeze\" />\n";
 
-    for (ICommand c : commands) {
-      animationStart = "    <animate attributeType=\"xml\" begin=\""
-              + (c.getStartTime() * this.timePerTick) + "ms\" dur=\""
-              + ((c.getEndTime() - c.getStartTime()) * this.timePerTick) + "ms\" "
-              + "attributeName=\"";
-
+    for (ICommand c : positions) {
+      String animationStart = buildAnimationStart(c);
       buildChangeX(type, output, animationStart, animationEnd, c);
       buildChangeY(type, output, animationStart, animationEnd, c);
+    }
+    for (ICommand c : sizes) {
+      String animationStart = buildAnimationStart(c);
       buildChangeHeight(type, output, animationStart, animationEnd, c);
       buildChangeWidth(type, output, animationStart, animationEnd, c);
-      buildChangeColor(output, animationStart, animationEnd, c);
-
+    }
+    for (ICommand c : colors) {
+      buildChangeColor(output, buildAnimationStart(c), animationEnd, c);
     }
     return output.toString();
   }
 
+  // builds the motions between the KeyFrames that some groups of attributes of a shape need
+  private List<ICommand> buildTrack(String id, int groups) {
+    List<int[]> keyFrames = new ArrayList<>();
+    model.forEachKeyFrame(id, groups, (tick, x, y, width, height, red, green, blue) ->
+            keyFrames.add(new int[] {tick, x, y, width, height, red, green, blue}));
+    List<ICommand> track = new ArrayList<>();
+    for (int i = 1; i < keyFrames.size(); i++) {
+      int[] s = keyFrames.get(i - 1);
+      int[] e = keyFrames.get(i);
+      track.add(new MotionCommand(s[0], s[1], s[2], s[3], s[4], s[5], s[6], s[7],
+              e[0], e[1], e[2], e[3], e[4], e[5], e[6], e[7]));
+    }
+    return track;
+  }
+
+  // builds the start of an SVG animation lasting as long as the given motion
+  private String buildAnimationStart(ICommand c) {
+    return "    <animate attributeType=\"xml\" begin=\""
+            + (c.getStartTime() * this.timePerTick) + "ms\" dur=\""
+            + ((c.getEndTime() - c.getStartTime()) * this.timePerTick) + "ms\" "
+            + "attributeName=\"";
+  }
+
   // builds SVG formatted string to represent color change
   private void buildChangeColor(StringBuilder output, String animationStart,
                                 String animationEnd, ICommand c) {
@@ -32,7 +32,7 @@ public class StatusPanel extends JPanel {
     Graphics2D g2 = (Graphics2D) g;
     this.setFont(new Font("Monaco", Font.PLAIN, 40));
     g2.drawString(("Tick: " + this.tick), 70, 70);
-    int shapes = this.model.getShapes().size();
+    int shapes = this.model.getIdsView().size();
     g2.drawString(("Number of shapes:" + shapes), 70, 40);
     this.setFont(new Font("Monaco", Font.PLAIN, 15));
     g2.drawString("Click on a shape to edit that shape.",
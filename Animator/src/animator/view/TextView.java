@@ -1,13 +1,10 @@
 package animator.view;
 
-import java.util.List;
-
 import animator.controller.IAnimationController;
 import animator.controller.TextViewController;
 import animator.model.IAnimationModel;
 import animator.model.ICommand;
 import animator.model.IViewOnlyAnimationModel;
-import animator.model.IViewOnlyShape;
 
 /**
  * A public class to represent a textual view of an animation. This class produces a representation
@@ -34,15 +31,13 @@ public class TextView implements IAnimationView {
     checkForInvalidInputs(speed < 1);
     this.output.append("canvas " + this.model.getLeft() + " " + this.model.getTop() + " "
             + this.model.getWidth() + " " + this.model.getHeight() + "\n");
-    List<String> ids = this.model.getIds();
     //iterates through every shape and command.
-    for (String id: ids) {
-      IViewOnlyShape tempShape = this.model.getShape(id);
-      this.output.append("shape " + id + " " + tempShape.toString() + "\n");
-      for (ICommand command : model.getCommands(id)) {
+    this.model.forEachShape((id, shape) -> {
+      this.output.append("shape " + id + " " + shape.toString() + "\n");
+      for (ICommand command : this.model.getCommandsView(id)) {
         this.output.append(command.getType() + " " + id + " " + command.toString());
       }
-    }
+    });
   }
 
   private void checkForInvalidInputs(boolean b) {
@@ -4,6 +4,8 @@ import animator.controller.IAnimationController;
 import animator.controller.IAnimationEditorController;
 import animator.model.AnimationModel;
 import animator.model.IAnimationModel;
+import animator.model.KeyFrame;
+import animator.model.Rectangle;
 import animator.util.AnimatorViewFactory;
 import animator.view.IAnimationView;
 
@@ -92,6 +94,55 @@ public class AnimationControllerTest {
     ((IAnimationEditorController) controller).handleGuiCommand("deleteShape");
   }
 
+  @Test
+  public void testUndoAndRedoCommands() {
+    IAnimationModel model = new AnimationModel();
+    model.setScreenSize(0, 0, 100, 100);
+    AnimatorViewFactory factory = new AnimatorViewFactory();
+    IAnimationView view = factory.create("edit", model);
+    IAnimationController controller = view.getController(model, 20);
+    controller.play();
+    model.addShape("r", new Rectangle());
+    model.addKeyFrame("r", new KeyFrame(1, 0, 0, 10, 10, 0, 0, 0));
+    model.addKeyFrame("r", new KeyFrame(10, 50, 0, 10, 10, 0, 0, 0));
+
+    ((IAnimationEditorController) controller).handleGuiCommand("undo");
+    assertEquals(1, model.getKeyFrames("r").size());
+    ((IAnimationEditorController) controller).handleGuiCommand("undo");
+    ((IAnimationEditorController) controller).handleGuiCommand("undo");
+    assertEquals(0, model.getShapes().size());
+    ((IAnimationEditorController) controller).handleGuiCommand("redo");
+    ((IAnimationEditorController) controller).handleGuiCommand("redo");
+    assertEquals(1, model.getShapes().size());
+    assertEquals(1, model.getKeyFrames("r").size());
+    assertEquals(1, model.getKeyFrames("r").get(0).getTick());
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testUndoWithNothingToUndo() {
+    IAnimationModel model = new AnimationModel();
+    model.setScreenSize(0, 0, 100, 100);
+    AnimatorViewFactory factory = new AnimatorViewFactory();
+    IAnimationView view = factory.create("edit", model);
+    IAnimationController controller = view.getController(model, 20);
+    controller.play();
+
+    ((IAnimationEditorController) controller).handleGuiCommand("undo");
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testRedoWithNothingToRedo() {
+    IAnimationModel model = new AnimationModel();
+    model.setScreenSize(0, 0, 100, 100);
+    AnimatorViewFactory factory = new AnimatorViewFactory();
+    IAnimationView view = factory.create("edit", model);
+    IAnimationController controller = view.getController(model, 20);
+    controller.play();
+    model.addShape("r", new Rectangle());
+
+    ((IAnimationEditorController) controller).handleGuiCommand("redo");
+  }
+
 
 
 }
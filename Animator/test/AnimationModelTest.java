@@ -1,15 +1,38 @@
 import org.junit.Test;
 
 import java.awt.Dimension;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import animator.model.AnimationModel;
+import animator.model.CompiledAnimation;
+import animator.model.ConcurrentAnimationModel;
+import animator.model.FrameBuffer;
 import animator.model.IAnimationModel;
 import animator.model.ICommand;
+import animator.model.IKeyFrame;
+import animator.model.IModelListener;
+import animator.model.IShape;
+import animator.model.IViewOnlyAnimationModel;
+import animator.model.KeyFrame;
+import animator.model.KeyFrameConsumer;
+import animator.model.MemoryReport;
 import animator.model.MotionCommand;
 import animator.model.Oval;
+import animator.model.PlaybackCursor;
 import animator.model.Rectangle;
+import animator.util.AnimationReader;
 
 import static org.junit.Assert.assertEquals;
 
@@ -383,6 +406,31 @@ public class AnimationModelTest {
     assertEquals(0, validModel.getShapes().size());
   }
 
+  @Test
+  public void testRemoveShapeKeepsOrder() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100,100);
+    validModel.addShape("a", testRectangle);
+    validModel.addShape("b", testOval);
+    validModel.addShape("c", testRectangle);
+    validModel.addShape("d", testOval);
+    validModel.addKeyFrame("d", new KeyFrame(1, 5, 5, 5, 5, 0, 0, 0));
+    validModel.addKeyFrame("d", new KeyFrame(10, 50, 5, 5, 5, 0, 0, 0));
+    List<String> ids = validModel.getIdsView();
+    validModel.removeShape("b");
+    assertEquals(3, ids.size());
+    assertEquals("c", ids.get(1));
+    validModel.addShape("b", testRectangle);
+    validModel.removeShape("a");
+    validModel.removeShape("c");
+    assertEquals(Arrays.asList("d", "b"), validModel.getIds());
+    assertEquals(Arrays.asList("d", "b"), ids);
+    assertEquals(2, validModel.getKeyFrames("d").size());
+    assertEquals(25, validModel.getShapesAtTick(5).get(0).getX());
+    assertEquals(0, validModel.getKeyFrames("b").size());
+    assertEquals(10, validModel.getFinalTick());
+  }
+
   @Test (expected = IllegalArgumentException.class)
   public void testInvalidKeyRemoveCommands() {
     validModel = new AnimationModel();
@@ -576,5 +624,1391 @@ public class AnimationModelTest {
     assertEquals(new Dimension(50, 150), validModel.getScreenSize());
   }
 
-  
+  @Test
+  public void testGetShapesAtTickFindsSegment() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addCommand("r", moveRight);
+    validModel.addCommand("r", new MotionCommand(10, 20, 0, 10, 10, 0, 0, 0,
+            20, 20, 40, 10, 10, 0, 0, 0));
+    validModel.addCommand("o", new MotionCommand(15, 0, 0, 10, 10, 0, 0, 0,
+            25, 0, 0, 10, 10, 0, 0, 0));
+
+    List<IShape> shapes = validModel.getShapesAtTick(5);
+    assertEquals(1, shapes.size());
+    assertEquals(10, shapes.get(0).getX());
+
+    shapes = validModel.getShapesAtTick(10);
+    assertEquals(1, shapes.size());
+    assertEquals(20, shapes.get(0).getX());
+    assertEquals(0, shapes.get(0).getY());
+
+    shapes = validModel.getShapesAtTick(15);
+    assertEquals(2, shapes.size());
+    assertEquals(20, shapes.get(0).getY());
+
+    assertEquals(1, validModel.getShapesAtTick(25).size());
+    assertEquals(0, validModel.getShapesAtTick(26).size());
+  }
+
+  @Test
+  public void testGetFinalTickFollowsEdits() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    assertEquals(-1, validModel.getFinalTick());
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addCommand("r", moveRight);
+    validModel.addCommand("r", new MotionCommand(10, 20, 0, 10, 10, 0, 0, 0,
+            30, 20, 40, 10, 10, 0, 0, 0));
+    validModel.addCommand("o", new MotionCommand(5, 0, 0, 10, 10, 0, 0, 0,
+            25, 0, 0, 10, 10, 0, 0, 0));
+    assertEquals(30, validModel.getFinalTick());
+
+    validModel.deleteKeyFrame("r", 30);
+    assertEquals(25, validModel.getFinalTick());
+
+    validModel.addKeyFrame("r", new KeyFrame(40, 0, 0, 10, 10, 0, 0, 0));
+    assertEquals(40, validModel.getFinalTick());
+
+    validModel.removeShape("r");
+    assertEquals(25, validModel.getFinalTick());
+
+    validModel.removeLastCommand("o");
+    assertEquals(-1, validModel.getFinalTick());
+  }
+
+  @Test (expected = UnsupportedOperationException.class)
+  public void testGetIdsViewIsReadOnly() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    List<String> view = validModel.getIdsView();
+    validModel.addShape("o", testOval);
+    assertEquals(Arrays.asList("r", "o"), view);
+    view.remove(0);
+  }
+
+  @Test
+  public void testForEachKeyFrame() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    StringBuilder ticks = new StringBuilder();
+    validModel.forEachKeyFrame("r", (tick, x, y, width, height, red, green, blue) ->
+            ticks.append(tick + ":" + x + "," + width + "," + red + " "));
+    assertEquals("0:0,10,0 10:20,30,30 ", ticks.toString());
+    assertEquals(1, validModel.getCommandsView("r").size());
+  }
+
+  @Test
+  public void testKeyFrameEditsUpdateNeighbouringCommands() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addKeyFrame("r", new KeyFrame(10, 10, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(30, 30, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(0, 0, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(20, 50, 0, 10, 10, 0, 0, 0));
+    List<ICommand> motions = validModel.getCommands("r");
+    assertEquals(3, motions.size());
+    assertEquals(0, motions.get(0).getStartTime());
+    assertEquals(10, motions.get(1).getStartTime());
+    assertEquals(50, motions.get(1).getEndX());
+    assertEquals(50, motions.get(2).getStartX());
+    assertEquals(30, motions.get(2).getEndTime());
+
+    validModel.addKeyFrame("r", new KeyFrame(20, 20, 0, 10, 10, 0, 0, 0));
+    validModel.deleteKeyFrame("r", 10);
+    motions = validModel.getCommands("r");
+    assertEquals(2, motions.size());
+    assertEquals(0, motions.get(0).getStartTime());
+    assertEquals(20, motions.get(0).getEndTime());
+    assertEquals(20, motions.get(0).getEndX());
+    assertEquals(20, motions.get(1).getStartX());
+    assertEquals(30, validModel.getFinalTick());
+  }
+
+  @Test
+  public void testBuilderSortsAndChecksMotionsAtBuild() {
+    AnimationModel.Builder builder = new AnimationModel.Builder();
+    builder.setBounds(0, 0, 100, 100);
+    builder.declareShape("r", "rectangle");
+    builder.declareShape("o", "ellipse");
+    builder.addMotion("r", 10, 20, 0, 10, 10, 0, 0, 0, 20, 20, 40, 10, 10, 0, 0, 0);
+    builder.addMotion("r", 0, 0, 0, 10, 10, 0, 0, 0, 10, 20, 0, 10, 10, 0, 0, 0);
+    IAnimationModel model = builder.build();
+    assertEquals(Arrays.asList("r", "o"), model.getIds());
+    assertEquals(2, model.getCommands("r").size());
+    assertEquals(0, model.getCommands("r").get(0).getStartTime());
+    assertEquals(3, model.getKeyFrames("r").size());
+    assertEquals(0, model.getCommands("o").size());
+    assertEquals(20, model.getFinalTick());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBuilderRejectsGapBetweenMotions() {
+    AnimationModel.Builder builder = new AnimationModel.Builder();
+    builder.setBounds(0, 0, 100, 100);
+    builder.declareShape("r", "rectangle");
+    builder.addMotion("r", 0, 0, 0, 10, 10, 0, 0, 0, 10, 20, 0, 10, 10, 0, 0, 0);
+    builder.addMotion("r", 15, 20, 0, 10, 10, 0, 0, 0, 20, 20, 40, 10, 10, 0, 0, 0);
+    builder.build();
+  }
+
+  @Test
+  public void testReadKeyframeLines() {
+    String input = "canvas 0 0 100 100\n"
+            + "shape r rectangle\n"
+            + "keyframe r 20 40 0 10 10 0 0 0\n"
+            + "keyframe r 0 0 0 10 10 0 0 0\n"
+            + "keyframe r 10 5 0 10 10 0 0 0\n"
+            + "keyframe r 10 20 0 10 10 0 0 0\n";
+    IAnimationModel model = AnimationReader.parseFile(new StringReader(input),
+            new AnimationModel.Builder());
+    assertEquals(3, model.getKeyFrames("r").size());
+    assertEquals(20, model.getKeyFrames("r").get(1).getX());
+    List<ICommand> motions = model.getCommands("r");
+    assertEquals(2, motions.size());
+    assertEquals(0, motions.get(0).getStartTime());
+    assertEquals(20, motions.get(0).getEndX());
+    assertEquals(20, motions.get(1).getEndTime());
+    assertEquals(20, model.getFinalTick());
+    assertEquals(30, model.getShapesAtTick(15).get(0).getX());
+  }
+
+  @Test
+  public void testReadKeyframeLinesAfterMotionLines() {
+    String input = "canvas 0 0 100 100\n"
+            + "shape r rectangle\n"
+            + "motion r 0 0 0 10 10 0 0 0 10 20 0 10 10 0 0 0\n"
+            + "motion r 10 20 0 10 10 0 0 0 20 40 0 10 10 0 0 0\n"
+            + "keyframe r 30 50 0 10 10 0 0 0\n"
+            + "keyframe r 10 7 0 10 10 0 0 0\n"
+            + "keyframe r 5 100 0 10 10 0 0 0\n"
+            + "keyframe r 10 8 0 10 10 0 0 0\n";
+    IAnimationModel model = AnimationReader.parseFile(new StringReader(input),
+            new AnimationModel.Builder());
+
+    // the same edits made one at a time
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", new Rectangle());
+    validModel.addCommand("r", new MotionCommand(0, 0, 0, 10, 10, 0, 0, 0,
+            10, 20, 0, 10, 10, 0, 0, 0));
+    validModel.addCommand("r", new MotionCommand(10, 20, 0, 10, 10, 0, 0, 0,
+            20, 40, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(30, 50, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(10, 7, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(5, 100, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(10, 8, 0, 10, 10, 0, 0, 0));
+
+    assertEquals(validModel.getKeyFrames("r").size(), model.getKeyFrames("r").size());
+    for (int i = 0; i < model.getKeyFrames("r").size(); i++) {
+      assertEquals(validModel.getKeyFrames("r").get(i).getTick(),
+              model.getKeyFrames("r").get(i).getTick());
+      assertEquals(validModel.getKeyFrames("r").get(i).getX(),
+              model.getKeyFrames("r").get(i).getX());
+    }
+    assertEquals(8, model.getKeyFrames("r").get(2).getX());
+    List<ICommand> motions = model.getCommands("r");
+    assertEquals(validModel.getCommands("r").size(), motions.size());
+    for (int i = 0; i < motions.size(); i++) {
+      assertEquals(validModel.getCommands("r").get(i).getStartTime(),
+              motions.get(i).getStartTime());
+      assertEquals(validModel.getCommands("r").get(i).getEndX(), motions.get(i).getEndX());
+    }
+    assertEquals(30, model.getFinalTick());
+    for (int tick = 0; tick <= 30; tick++) {
+      assertEquals(validModel.getShapesAtTick(tick).get(0).getX(),
+              model.getShapesAtTick(tick).get(0).getX());
+    }
+  }
+
+  @Test
+  public void testBuilderMergesManyKeyFramesWithMotions() {
+    AnimationModel.Builder builder = new AnimationModel.Builder();
+    builder.setBounds(0, 0, 100, 100);
+    builder.declareShape("r", "rectangle");
+    for (int t = 0; t < 40000; t += 2) {
+      builder.addMotion("r", t, t, 0, 10, 10, 0, 0, 0, t + 2, t + 2, 0, 10, 10, 0, 0, 0);
+    }
+    // one KeyFrame between every two the motions give, and one replacing every tenth of them
+    for (int t = 1; t < 40000; t += 2) {
+      builder.addKeyframe("r", t, 0, 0, 10, 10, 0, 0, 0);
+    }
+    for (int t = 0; t <= 40000; t += 20) {
+      builder.addKeyframe("r", t, 5, 0, 10, 10, 0, 0, 0);
+    }
+    IAnimationModel model = builder.build();
+    List<IKeyFrame> frames = model.getKeyFrames("r");
+    assertEquals(40001, frames.size());
+    assertEquals(40000, model.getCommands("r").size());
+    for (int t = 0; t <= 40000; t++) {
+      assertEquals(t, frames.get(t).getTick());
+      assertEquals(t % 20 == 0 ? 5 : t % 2 == 1 ? 0 : t, frames.get(t).getX());
+    }
+    assertEquals(5, model.getShapesAtTick(20).get(0).getX());
+    assertEquals(40000, model.getFinalTick());
+  }
+
+  @Test
+  public void testGetIdOfTopShape() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(10, 10, 100, 100);
+    validModel.addShape("under", testRectangle);
+    validModel.addShape("twin", testRectangle);
+    validModel.addShape("oval", testOval);
+    validModel.addCommand("under", doNothing);
+    validModel.addCommand("twin", doNothing);
+    validModel.addCommand("oval", moveRight);
+    assertEquals("oval", validModel.getIdOfTopShape(0, -5, -5));
+    assertEquals("oval", validModel.getIdOfTopShape(10, 20, 5));
+    assertEquals("twin", validModel.getIdOfTopShape(10, -5, -5));
+
+    validModel.deleteKeyFrame("twin", 10);
+    validModel.deleteKeyFrame("twin", 0);
+    assertEquals("under", validModel.getIdOfTopShape(10, -5, -5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetIdOfTopShapeMissesEdges() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doNothing);
+    validModel.getIdOfTopShape(0, 10, 5);
+  }
+
+  @Test
+  public void testSampleIntoDoesNotChangeModel() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addCommand("r", doEverything);
+    validModel.addCommand("o", moveDiagonal);
+    FrameBuffer frame = new FrameBuffer();
+
+    validModel.sampleInto(5, frame);
+    assertEquals(2, frame.size());
+    assertEquals("r", frame.getId(0));
+    assertEquals(FrameBuffer.RECTANGLE, frame.getKind(0));
+    assertEquals(10, frame.getX(0));
+    assertEquals(20, frame.getWidth(0));
+    assertEquals((15 << 16) | (10 << 8) | 5, frame.getColor(0));
+    assertEquals("o", frame.getId(1));
+    assertEquals(FrameBuffer.OVAL, frame.getKind(1));
+    assertEquals(10, frame.getY(1));
+    assertEquals(0, validModel.getShape("r").getX());
+
+    validModel.sampleInto(11, frame);
+    assertEquals(0, frame.size());
+  }
+
+  @Test
+  public void testPlaybackCursorFollowsPlaybackAndEdits() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", moveRight);
+    validModel.addCommand("r", new MotionCommand(10, 20, 0, 10, 10, 0, 0, 0,
+            20, 20, 40, 10, 10, 0, 0, 0));
+    PlaybackCursor cursor = validModel.createCursor();
+    FrameBuffer frame = new FrameBuffer();
+
+    for (int tick = 0; tick <= 15; tick++) {
+      cursor.advance();
+    }
+    assertEquals(15, cursor.getTick());
+    cursor.sampleInto(frame);
+    assertEquals(20, frame.getX(0));
+    assertEquals(20, frame.getY(0));
+
+    validModel.addKeyFrame("r", new KeyFrame(15, 50, 50, 10, 10, 0, 0, 0));
+    cursor.sampleInto(frame);
+    assertEquals(50, frame.getX(0));
+
+    cursor.seek(1);
+    cursor.sampleInto(frame);
+    assertEquals(2, frame.getX(0));
+
+    cursor.seek(21);
+    cursor.sampleInto(frame);
+    assertEquals(0, frame.size());
+  }
+
+  @Test
+  public void testPlaybackCursorMatchesSampleInto() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addShape("late", new Rectangle());
+    validModel.addCommand("r", doEverything);
+    validModel.addCommand("r", new MotionCommand(10, 20, 10, 30, 30, 30, 20, 10,
+            30007, 20001, 70, 3, 40000, 255, 0, 255));
+    validModel.addCommand("o", moveDiagonal);
+    validModel.addCommand("late", new MotionCommand(5, 0, 0, 10, 10, 0, 0, 0,
+            12, 7, 3, 10, 10, 100, 0, 0));
+    PlaybackCursor cursor = validModel.createCursor();
+    FrameBuffer expected = new FrameBuffer();
+    FrameBuffer actual = new FrameBuffer();
+
+    for (int tick = 0; tick <= validModel.getFinalTick() + 1; tick += tick < 40 ? 1 : 997) {
+      cursor.seek(tick);
+      cursor.sampleInto(actual);
+      validModel.sampleInto(tick, expected);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.getId(i), actual.getId(i));
+        assertEquals(expected.getKind(i), actual.getKind(i));
+        assertEquals(expected.getX(i), actual.getX(i));
+        assertEquals(expected.getY(i), actual.getY(i));
+        assertEquals(expected.getWidth(i), actual.getWidth(i));
+        assertEquals(expected.getHeight(i), actual.getHeight(i));
+        assertEquals(expected.getColor(i), actual.getColor(i));
+      }
+    }
+  }
+
+  @Test
+  public void testPlaybackCursorMarksShapesThatHeldStill() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addCommand("r", new MotionCommand(1, 0, 0, 10, 10, 0, 0, 0,
+            11, 10, 0, 10, 10, 0, 0, 0));
+    validModel.addCommand("r", new MotionCommand(11, 10, 0, 10, 10, 0, 0, 0,
+            20, 10, 0, 10, 10, 0, 0, 0));
+    validModel.addCommand("o", new MotionCommand(1, 5, 5, 10, 10, 0, 0, 255,
+            20, 5, 5, 10, 10, 0, 0, 255));
+    PlaybackCursor cursor = validModel.createCursor();
+    FrameBuffer frame = new FrameBuffer();
+
+    cursor.seek(1);
+    cursor.sampleInto(frame);
+    assertEquals("r", frame.getId(0));
+    assertEquals("o", frame.getId(1));
+    assertEquals(true, frame.isChanged(0));
+    assertEquals(true, frame.isChanged(1));
+
+    cursor.seek(2);
+    cursor.sampleInto(frame);
+    assertEquals(true, frame.isChanged(0));
+    assertEquals(false, frame.isChanged(1));
+
+    cursor.seek(12);
+    cursor.sampleInto(frame);
+    assertEquals(true, frame.isChanged(0));
+    assertEquals(false, frame.isChanged(1));
+
+    cursor.seek(13);
+    cursor.sampleInto(frame);
+    assertEquals(false, frame.isChanged(0));
+    assertEquals(false, frame.isChanged(1));
+    assertEquals(10, frame.getX(0));
+    assertEquals(5, frame.getX(1));
+    assertEquals(255, frame.getColor(1));
+
+    validModel.sampleInto(3, frame);
+    assertEquals(true, frame.isChanged(0));
+    cursor.seek(14);
+    cursor.sampleInto(frame);
+    assertEquals(true, frame.isChanged(0));
+    assertEquals(true, frame.isChanged(1));
+    assertEquals(10, frame.getX(0));
+  }
+
+  @Test
+  public void testFreezeMatchesModelAndIgnoresLaterEdits() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addShape("gone", new Rectangle());
+    validModel.addCommand("r", doEverything);
+    validModel.addCommand("o", moveDiagonal);
+    validModel.removeShape("gone");
+    CompiledAnimation frozen = validModel.freeze();
+    validModel.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+    validModel.removeShape("o");
+
+    assertEquals(Arrays.asList("r", "o"), frozen.getIdsView());
+    assertEquals(10, frozen.getFinalTick());
+    assertEquals(2, frozen.getKeyFrames("r").size());
+    assertEquals(frozen, frozen.freeze());
+    PlaybackCursor cursor = frozen.createCursor();
+    FrameBuffer expected = new FrameBuffer();
+    FrameBuffer actual = new FrameBuffer();
+    for (int tick = 0; tick <= 11; tick++) {
+      cursor.seek(tick);
+      cursor.sampleInto(actual);
+      frozen.sampleInto(tick, expected);
+      assertEquals(tick <= 10 ? 2 : 0, expected.size());
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.getId(i), actual.getId(i));
+        assertEquals(expected.getX(i), actual.getX(i));
+        assertEquals(expected.getY(i), actual.getY(i));
+        assertEquals(expected.getColor(i), actual.getColor(i));
+      }
+    }
+    frozen.sampleInto(5, expected);
+    assertEquals(10, expected.getX(0));
+    assertEquals("o", frozen.getIdOfTopShape(10, 21, 21));
+  }
+
+  @Test
+  public void testPublishedVersionsAreNotChangedByEdits() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addCommand("r", doEverything);
+    CompiledAnimation first = validModel.freeze();
+    assertEquals(first, validModel.freeze());
+
+    validModel.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+    CompiledAnimation second = validModel.freeze();
+    validModel.deleteKeyFrame("r", 0);
+    validModel.addShape("x", testRectangle);
+    validModel.removeShape("o");
+    validModel.removeShape("x");
+    CompiledAnimation third = validModel.freeze();
+
+    assertEquals(2, first.getKeyFrames("r").size());
+    assertEquals(1, first.getCommandsView("r").size());
+    assertEquals(3, second.getKeyFrames("r").size());
+    assertEquals(2, second.getCommandsView("r").size());
+    assertEquals(Arrays.asList("r", "o"), second.getIdsView());
+    assertEquals(2, third.getKeyFrames("r").size());
+    assertEquals(Arrays.asList("r"), third.getIdsView());
+    assertEquals(validModel.getKeyFrames("r").size(), third.getKeyFrames("r").size());
+    FrameBuffer frame = new FrameBuffer();
+    first.sampleInto(5, frame);
+    assertEquals(10, frame.getX(0));
+    second.sampleInto(5, frame);
+    assertEquals(90, frame.getX(0));
+  }
+
+  @Test
+  public void testVersionStampChangesWithEachPublishedVersion() {
+    for (AnimationModel model : Arrays.asList(new AnimationModel(),
+            new ConcurrentAnimationModel())) {
+      model.setScreenSize(0, 0, 100, 100);
+      model.addShape("r", testRectangle);
+      long stamp = model.getVersionStamp();
+      assertEquals(stamp, model.getVersionStamp());
+      CompiledAnimation first = model.freeze();
+      assertEquals(stamp, first.getVersionStamp());
+      assertEquals(stamp, model.getVersionStamp());
+
+      model.addCommand("r", doEverything);
+      assertEquals(false, stamp == model.getVersionStamp());
+      assertEquals(stamp, first.getVersionStamp());
+      assertEquals(model.getVersionStamp(), model.freeze().getVersionStamp());
+      PlaybackCursor cursor = model.createCursor();
+      model.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+      FrameBuffer frame = new FrameBuffer();
+      cursor.seek(5);
+      cursor.sampleInto(frame);
+      assertEquals(90, frame.getX(0));
+    }
+  }
+
+  @Test
+  public void testVersionsHandedOutAreNotChangedByLaterEdits() {
+    for (AnimationModel model : Arrays.asList(new AnimationModel(),
+            new ConcurrentAnimationModel())) {
+      model.setScreenSize(0, 0, 100, 100);
+      model.addShape("r", testRectangle);
+      model.addShape("o", testOval);
+      model.addCommand("r", doEverything);
+      PlaybackCursor cursor = model.createCursor();
+      CompiledAnimation first = model.freeze();
+      // only the first of these edits has to copy the KeyFrames of r
+      for (int tick = 1; tick < 10; tick++) {
+        model.addKeyFrame("r", new KeyFrame(tick, 90, 90, 1, 1, 0, 0, 0));
+      }
+      CompiledAnimation second = model.freeze();
+      model.deleteKeyFrame("r", 5);
+      model.addKeyFrame("r", new KeyFrame(5, 50, 50, 1, 1, 0, 0, 0));
+      model.addCommand("o", moveDiagonal);
+
+      assertEquals(2, first.getKeyFrames("r").size());
+      assertEquals(1, first.getCommandsView("r").size());
+      assertEquals(0, first.getKeyFrames("o").size());
+      assertEquals(11, second.getKeyFrames("r").size());
+      assertEquals(10, second.getCommandsView("r").size());
+      assertEquals(0, second.getKeyFrames("o").size());
+      assertEquals(11, model.getKeyFrames("r").size());
+      assertEquals(2, model.getKeyFrames("o").size());
+      FrameBuffer frame = new FrameBuffer();
+      second.sampleInto(5, frame);
+      assertEquals(90, frame.getX(0));
+      model.sampleInto(5, frame);
+      assertEquals(50, frame.getX(0));
+      cursor.seek(5);
+      cursor.sampleInto(frame);
+      assertEquals(50, frame.getX(0));
+    }
+  }
+
+  @Test
+  public void testUndoPutsBackCommandsOfEditsMadeInPlace() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    validModel.addCommand("r", new MotionCommand(10, 20, 10, 30, 30, 30, 20, 10,
+            20, 40, 10, 30, 30, 30, 20, 10));
+    validModel.removeLastCommand("r");
+    String before = validModel.getCommands("r").toString();
+    validModel.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(15, 90, 90, 1, 1, 0, 0, 0));
+    assertEquals(4, validModel.getCommands("r").size());
+
+    validModel.undo();
+    validModel.undo();
+    assertEquals(before, validModel.getCommands("r").toString());
+    validModel.redo();
+    validModel.redo();
+    assertEquals(4, validModel.getCommands("r").size());
+    validModel.undo();
+    validModel.undo();
+    assertEquals(before, validModel.getCommands("r").toString());
+  }
+
+  @Test
+  public void testUndoAndRedoKeyFrameEdits() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    List<IKeyFrame> loaded = validModel.getKeyFrames("r");
+    validModel.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(20, 0, 0, 1, 1, 0, 0, 0));
+    validModel.deleteKeyFrame("r", 0);
+    assertEquals(20, validModel.getFinalTick());
+
+    validModel.undo();
+    validModel.undo();
+    assertEquals(3, validModel.getKeyFrames("r").size());
+    assertEquals(2, validModel.getCommandsView("r").size());
+    validModel.undo();
+    assertEquals(loaded.toString(), validModel.getKeyFrames("r").toString());
+    assertEquals(1, validModel.getCommandsView("r").size());
+    assertEquals(10, validModel.getFinalTick());
+    FrameBuffer frame = new FrameBuffer();
+    validModel.freeze().sampleInto(5, frame);
+    assertEquals(10, frame.getX(0));
+
+    validModel.redo();
+    validModel.redo();
+    assertEquals(20, validModel.getFinalTick());
+    for (int i = 0; i < 4; i++) {
+      validModel.undo();
+    }
+    assertEquals(new ArrayList<>(), validModel.getIds());
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testRedoFailsAfterNewEdit() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    validModel.undo();
+    validModel.removeShape("r");
+    validModel.redo();
+  }
+
+  @Test
+  public void testUndoPutsRemovedShapesBackInOrder() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    for (int i = 0; i < 6; i++) {
+      validModel.addShape("s" + i, testRectangle);
+      validModel.addKeyFrame("s" + i, new KeyFrame(0, i, i, 5, 5, 0, 0, 0));
+      validModel.addKeyFrame("s" + i, new KeyFrame(10 + i, i, i, 5, 5, 0, 0, 0));
+    }
+    validModel.removeShape("s1");
+    validModel.removeShape("s2");
+    validModel.undo();
+    assertEquals(Arrays.asList("s0", "s2", "s3", "s4", "s5"), validModel.getIdsView());
+    // removing most shapes clears out the empty entries, so the handles change
+    validModel.removeShape("s2");
+    validModel.removeShape("s4");
+    validModel.removeShape("s5");
+    assertEquals(Arrays.asList("s0", "s3"), validModel.getIdsView());
+    validModel.undo();
+    validModel.undo();
+    validModel.undo();
+    validModel.undo();
+    assertEquals(Arrays.asList("s0", "s1", "s2", "s3", "s4", "s5"), validModel.getIdsView());
+    assertEquals(Arrays.asList("s0", "s1", "s2", "s3", "s4", "s5"),
+            validModel.freeze().getIdsView());
+    assertEquals(15, validModel.getFinalTick());
+    FrameBuffer frame = new FrameBuffer();
+    validModel.sampleInto(0, frame);
+    assertEquals("s4", frame.getId(4));
+    validModel.redo();
+    assertEquals(Arrays.asList("s0", "s2", "s3", "s4", "s5"), validModel.getIdsView());
+  }
+
+  @Test
+  public void testReadingIdsViewDoesNotChangeModel() {
+    for (IAnimationModel model : Arrays.asList(new AnimationModel(),
+            new ConcurrentAnimationModel())) {
+      model.setScreenSize(0, 0, 100, 100);
+      for (int i = 0; i < 3; i++) {
+        model.addShape("s" + i, testRectangle);
+      }
+      model.removeShape("s1");
+      CompiledAnimation version = model.freeze();
+      List<String> view = model.getIdsView();
+      assertEquals(2, view.size());
+      assertEquals("s0", view.get(0));
+      assertEquals("s2", view.get(1));
+      assertEquals(version, model.freeze());
+    }
+  }
+
+  @Test
+  public void testEditGroupIsUndoneAsOne() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.beginEditGroup();
+    for (int tick = 0; tick < 10; tick++) {
+      validModel.addKeyFrame("r", new KeyFrame(tick, tick, 0, 5, 5, 0, 0, 0));
+      validModel.beginEditGroup();
+      validModel.addKeyFrame("o", new KeyFrame(tick, 0, tick, 5, 5, 0, 0, 0));
+      validModel.endEditGroup();
+    }
+    validModel.addShape("x", testRectangle);
+    validModel.removeShape("x");
+    validModel.endEditGroup();
+    assertEquals(10, validModel.getKeyFrames("o").size());
+
+    validModel.undo();
+    assertEquals(0, validModel.getKeyFrames("r").size());
+    assertEquals(0, validModel.getKeyFrames("o").size());
+    assertEquals(Arrays.asList("r", "o"), validModel.getIds());
+    validModel.redo();
+    assertEquals(10, validModel.getKeyFrames("r").size());
+    assertEquals(9, validModel.getFinalTick());
+    validModel.undo();
+    validModel.undo();
+    assertEquals(Arrays.asList("r"), validModel.getIds());
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testUndoFailsWhileEditGroupIsOpen() {
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.beginEditGroup();
+    validModel.undo();
+  }
+
+  @Test
+  public void testListenersAreToldWhatChanged() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    List<String> events = new ArrayList<>();
+    IModelListener listener = new IModelListener() {
+      @Override
+      public void shapeAdded(String id) {
+        events.add("added " + id);
+      }
+
+      @Override
+      public void shapeRemoved(String id) {
+        events.add("removed " + id);
+      }
+
+      @Override
+      public void keyFramesChanged(String id, int startTick, int endTick) {
+        // the change has already been published
+        assertEquals(validModel.getKeyFrames(id).toString(),
+                validModel.freeze().getKeyFrames(id).toString());
+        events.add(id + " " + startTick + "-" + endTick);
+      }
+    };
+    validModel.addListener(listener);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    validModel.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(20, 0, 0, 1, 1, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(5, 0, 0, 1, 1, 0, 0, 0));
+    validModel.deleteKeyFrame("r", 0);
+    validModel.removeLastCommand("r");
+    validModel.undo();
+    validModel.undo();
+    validModel.removeShape("r");
+    validModel.undo();
+    validModel.removeListener(listener);
+    validModel.addShape("x", testRectangle);
+
+    assertEquals(Arrays.asList("added r", "r 0-10", "r 0-10", "r 10-20", "r 0-10", "r 0-5",
+            "r 10-20", "r 10-20", "r 0-5", "removed r", "added r"), events);
+  }
+
+  @Test
+  public void testConcurrentModelListenersMayCallBackIntoModel() throws InterruptedException {
+    ConcurrentAnimationModel model = new ConcurrentAnimationModel();
+    model.setScreenSize(0, 0, 100, 100);
+    List<String> events = new ArrayList<>();
+    model.addListener(new IModelListener() {
+      @Override
+      public void shapeAdded(String id) {
+        events.add("added " + id + " " + model.getIds());
+      }
+
+      @Override
+      public void shapeRemoved(String id) {
+        events.add("removed " + id + " " + model.getIds());
+      }
+
+      @Override
+      public void keyFramesChanged(String id, int startTick, int endTick) {
+        events.add(id + " " + model.getKeyFrames(id).size() + " "
+                + model.getShapesAtTick(startTick).size());
+      }
+    });
+    // the lock is not reentrant, so a listener called while it is held would never return
+    Thread editor = new Thread(() -> {
+      model.addShape("r", testRectangle);
+      model.addCommand("r", doEverything);
+      model.addKeyFrame("r", new KeyFrame(5, 90, 90, 1, 1, 0, 0, 0));
+      model.removeShape("r");
+      model.undo();
+    });
+    editor.start();
+    editor.join(10000);
+
+    assertEquals(false, editor.isAlive());
+    assertEquals(Arrays.asList("added r [r]", "r 2 1", "r 3 1", "removed r []", "added r [r]"),
+            events);
+  }
+
+  @Test
+  public void testShapesActiveBetweenMatchesKeyFrames() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    Random random = new Random(42);
+    for (int i = 0; i < 300; i++) {
+      validModel.addShape("s" + i, testRectangle);
+      int frames = random.nextInt(4);
+      int tick = random.nextInt(200);
+      for (int k = 0; k < frames; k++) {
+        validModel.addKeyFrame("s" + i, new KeyFrame(tick, 1, 1, 1, 1, 0, 0, 0));
+        tick += random.nextInt(60);
+      }
+    }
+    for (int i = 0; i < 300; i += 7) {
+      validModel.removeShape("s" + i);
+    }
+    for (int query = 0; query < 200; query++) {
+      int start = random.nextInt(300) - 20;
+      int end = start + random.nextInt(query % 2 == 0 ? 3 : 80);
+      List<String> expected = new ArrayList<>();
+      for (String id : validModel.getIds()) {
+        List<IKeyFrame> frames = validModel.getKeyFrames(id);
+        if (frames.size() > 1 && frames.get(0).getTick() <= end
+                && frames.get(frames.size() - 1).getTick() >= start) {
+          expected.add(id);
+        }
+      }
+      assertEquals(expected, validModel.shapesActiveBetween(start, end));
+    }
+    assertEquals(new ArrayList<>(), new AnimationModel().shapesActiveBetween(0, 10));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testShapesActiveBetweenRejectsBackwardsWindow() {
+    validModel.shapesActiveBetween(5, 4);
+  }
+
+  @Test
+  public void testConcurrentModelReadersSeeWholeEdits() throws InterruptedException {
+    ConcurrentAnimationModel model = new ConcurrentAnimationModel();
+    model.setScreenSize(0, 0, 100, 100);
+    for (int i = 0; i < 50; i++) {
+      model.addShape("s" + i, new Rectangle());
+      model.addKeyFrame("s" + i, new KeyFrame(0, i, i, 5, 5, 0, 0, 0));
+      model.addKeyFrame("s" + i, new KeyFrame(100, 2 * i, 2 * i, 5, 5, 0, 0, 0));
+    }
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    AtomicBoolean done = new AtomicBoolean(false);
+    List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < 3; r++) {
+      readers.add(new Thread(() -> {
+        FrameBuffer frame = new FrameBuffer();
+        PlaybackCursor cursor = model.createCursor();
+        try {
+          for (int tick = 0; !done.get(); tick = (tick + 7) % 101) {
+            // every KeyFrame ever added has equal x and y, so every sampled state must as well
+            model.sampleInto(tick, frame);
+            for (int i = 0; i < frame.size(); i++) {
+              assertEquals(frame.getX(i), frame.getY(i));
+            }
+            cursor.seek(tick);
+            cursor.sampleInto(frame);
+            for (int i = 0; i < frame.size(); i++) {
+              assertEquals(frame.getX(i), frame.getY(i));
+            }
+            // a shape is only ever missing between being removed and added back
+            int[] count = new int[1];
+            model.forEachShape((id, shape) -> count[0]++);
+            assertEquals(true, count[0] == 49 || count[0] == 50);
+          }
+        }
+        catch (Throwable t) {
+          failures.add(t);
+        }
+      }));
+    }
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    for (int edit = 0; edit < 2000; edit++) {
+      String id = "s" + (edit % 50);
+      model.addKeyFrame(id, new KeyFrame(50, edit, edit, 5, 5, 0, 0, 0));
+      model.deleteKeyFrame(id, 50);
+      if (edit % 100 == 0) {
+        model.removeShape(id);
+        model.addShape(id, new Rectangle());
+        model.addKeyFrame(id, new KeyFrame(0, 1, 1, 5, 5, 0, 0, 0));
+        model.addKeyFrame(id, new KeyFrame(100, 3, 3, 5, 5, 0, 0, 0));
+      }
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+    assertEquals(50, model.getIdsView().size());
+    assertEquals(100, model.getFinalTick());
+  }
+
+  @Test
+  public void testConcurrentReadersAfterFailedEditShareOneVersion() throws InterruptedException {
+    AtomicBoolean failing = new AtomicBoolean(false);
+    ConcurrentAnimationModel model = new ConcurrentAnimationModel() {
+      @Override
+      protected void publish(int handle) {
+        if (failing.get()) {
+          throw new IllegalStateException("Failed edit");
+        }
+        super.publish(handle);
+      }
+    };
+    model.setScreenSize(0, 0, 100, 100);
+    model.addShape("r", new Rectangle());
+    model.addCommand("r", moveRight);
+    failing.set(true);
+    try {
+      model.addCommand("r", new MotionCommand(10, 20, 0, 10, 10, 0, 0, 0,
+              20, 30, 0, 10, 10, 0, 0, 0));
+    }
+    catch (IllegalStateException e) {
+      // the edit closed the latest version and never published the next one
+    }
+    failing.set(false);
+
+    // each reader hands out a version, and only one may be published in place of the closed one
+    List<Long> stamps = Collections.synchronizedList(new ArrayList<>());
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < 8; r++) {
+      int reader = r;
+      readers.add(new Thread(() -> {
+        try {
+          start.await();
+          if (reader % 3 == 0) {
+            model.getCommandsView("r");
+          }
+          else if (reader % 3 == 1) {
+            model.forEachKeyFrame("r", (t, x, y, w, h, red, green, blue) -> { });
+          }
+          else {
+            model.forEachKeyFrame("r", 1, (t, x, y, w, h, red, green, blue) -> { });
+          }
+          stamps.add(model.freeze().getVersionStamp());
+        }
+        catch (Throwable t) {
+          failures.add(t);
+        }
+      }));
+    }
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    start.countDown();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+    assertEquals(8, stamps.size());
+    assertEquals(1, new HashSet<>(stamps).size());
+    assertEquals(model.getVersionStamp(), (long) stamps.get(0));
+    assertEquals(2, model.getCommandsView("r").size());
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testFrozenScreenCannotBeSet() {
+    validModel = new AnimationModel();
+    validModel.freeze().setScreenSize(0, 0, 100, 100);
+  }
+
+  @Test
+  public void testSamplingMatchesKeyFramesOnExampleFiles() throws IOException {
+    File directory = new File("test");
+    if (!directory.isDirectory()) {
+      directory = new File("Animator", "test");
+    }
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(".txt"));
+    assertEquals(true, files != null && files.length > 0);
+    for (File file : files) {
+      IAnimationModel model;
+      try (Reader in = new FileReader(file)) {
+        model = AnimationReader.parseFile(in, new AnimationModel.Builder());
+      }
+      List<String> ids = model.getIds();
+      List<List<IKeyFrame>> keyFrames = new ArrayList<>();
+      List<List<ICommand>> motions = new ArrayList<>();
+      for (String id : ids) {
+        keyFrames.add(model.getKeyFrames(id));
+        motions.add(model.getCommands(id));
+      }
+      int[] segments = new int[ids.size()];
+      FrameBuffer frame = new FrameBuffer();
+      IShape fromKeyFrame = new Rectangle();
+      IShape fromMotion = new Rectangle();
+
+      // every tick of every segment, compared against the floating point rule
+      for (int tick = 0; tick <= model.getFinalTick(); tick++) {
+        model.sampleInto(tick, frame);
+        int index = 0;
+        for (int i = 0; i < ids.size(); i++) {
+          List<IKeyFrame> frames = keyFrames.get(i);
+          int last = frames.size() - 1;
+          if (last < 1 || tick < frames.get(0).getTick() || tick > frames.get(last).getTick()) {
+            continue;
+          }
+          while (segments[i] < last - 1 && frames.get(segments[i] + 1).getTick() <= tick) {
+            segments[i]++;
+          }
+          frames.get(segments[i]).getState(tick, frames.get(segments[i] + 1), fromKeyFrame);
+          motions.get(i).get(segments[i]).getState(tick, fromMotion);
+          String where = file.getName() + " " + ids.get(i) + " at tick " + tick;
+          assertEquals(where, ids.get(i), frame.getId(index));
+          for (IShape expected : Arrays.asList(fromKeyFrame, fromMotion)) {
+            assertEquals(where, expected.getX(), frame.getX(index));
+            assertEquals(where, expected.getY(), frame.getY(index));
+            assertEquals(where, expected.getDimensionX(), frame.getWidth(index));
+            assertEquals(where, expected.getDimensionY(), frame.getHeight(index));
+            assertEquals(where, (expected.getRed() << 16) | (expected.getGreen() << 8)
+                    | expected.getBlue(), frame.getColor(index));
+          }
+          index++;
+        }
+        assertEquals(file.getName() + " at tick " + tick, index, frame.size());
+      }
+    }
+  }
+
+  @Test
+  public void testSamplingMatchesKeyFramesOnSegmentsWithHalfwayTicks() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    Random random = new Random(8);
+    int tick = 0;
+    int x = 0;
+    int width = 500;
+    validModel.addKeyFrame("r", new KeyFrame(tick, x, 0, width, 10, 0, 0, 0));
+    for (int i = 0; i < 300; i++) {
+      // even periods with odd changes land exactly halfway at some ticks
+      int period = 2 * (1 + random.nextInt(i < 200 ? 60 : 600));
+      tick += period;
+      x += (2 * random.nextInt(400) + 1) * (random.nextBoolean() ? 1 : -1);
+      width = 1 + random.nextInt(1000);
+      validModel.addKeyFrame("r", new KeyFrame(tick, x, 0, width, 10, 0, 0, 0));
+    }
+    List<IKeyFrame> frames = validModel.getKeyFrames("r");
+    FrameBuffer frame = new FrameBuffer();
+    IShape expected = new Rectangle();
+    for (int i = 0; i + 1 < frames.size(); i++) {
+      for (int time = frames.get(i).getTick(); time < frames.get(i + 1).getTick(); time++) {
+        frames.get(i).getState(time, frames.get(i + 1), expected);
+        validModel.sampleInto(time, frame);
+        assertEquals("at tick " + time, expected.getX(), frame.getX(0));
+        assertEquals("at tick " + time, expected.getDimensionX(), frame.getWidth(0));
+      }
+    }
+  }
+
+  @Test
+  public void testCompactionRemovesOnlyKeyFramesThatChangeNothing() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", new MotionCommand(0, 0, 0, 10, 10, 0, 0, 0,
+            0, 0, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(5, 5, 10, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(10, 10, 20, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(20, 10, 20, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(30, 10, 20, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(33, 11, 20, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(40, 20, 20, 10, 10, 0, 0, 0));
+    assertEquals(8, validModel.getKeyFrames("r").size());
+    assertEquals(3, validModel.compactKeyFrames());
+    List<Integer> ticks = new ArrayList<>();
+    for (IKeyFrame k : validModel.getKeyFrames("r")) {
+      ticks.add(k.getTick());
+    }
+    assertEquals(Arrays.asList(0, 10, 30, 33, 40), ticks);
+    assertEquals(4, validModel.getCommands("r").size());
+    assertEquals(0, validModel.compactKeyFrames());
+    validModel.undo();
+    assertEquals(8, validModel.getKeyFrames("r").size());
+  }
+
+  @Test
+  public void testCompactionKeepsEveryFrameOfExampleFiles() throws IOException {
+    File directory = new File("test");
+    if (!directory.isDirectory()) {
+      directory = new File("Animator", "test");
+    }
+    for (File file : directory.listFiles((dir, name) -> name.endsWith(".txt"))) {
+      IAnimationModel model;
+      try (Reader in = new FileReader(file)) {
+        model = AnimationReader.parseFile(in, new AnimationModel.Builder());
+      }
+      List<String> before = sampleEveryTick(model);
+      int keyFrames = 0;
+      for (String id : model.getIds()) {
+        keyFrames += model.getKeyFrames(id).size();
+      }
+      int removed = model.compactKeyFrames();
+      for (String id : model.getIds()) {
+        keyFrames -= model.getKeyFrames(id).size();
+        assertEquals(file.getName() + " " + id, Math.max(0, model.getKeyFrames(id).size() - 1),
+                model.getCommands(id).size());
+      }
+      assertEquals(file.getName(), removed, keyFrames);
+      assertEquals(file.getName(), before, sampleEveryTick(model));
+    }
+  }
+
+  @Test
+  public void testCompactionOfLongTrackIsOneEdit() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    // a straight line that doubles its speed halfway
+    for (int tick = 0; tick <= 32000; tick++) {
+      int x = tick <= 16000 ? tick : 2 * tick - 16000;
+      validModel.addKeyFrame("r", new KeyFrame(tick, x, 0, 10, 10, 0, 0, 0));
+    }
+    List<String> events = new ArrayList<>();
+    validModel.addListener(new IModelListener() {
+      @Override
+      public void shapeAdded(String id) {
+        events.add("added " + id);
+      }
+
+      @Override
+      public void shapeRemoved(String id) {
+        events.add("removed " + id);
+      }
+
+      @Override
+      public void keyFramesChanged(String id, int startTick, int endTick) {
+        events.add(id + " " + startTick + "-" + endTick);
+      }
+    });
+    List<String> before = sampleEveryTick(validModel);
+
+    assertEquals(31998, validModel.compactKeyFrames());
+    List<Integer> ticks = new ArrayList<>();
+    for (IKeyFrame k : validModel.getKeyFrames("r")) {
+      ticks.add(k.getTick());
+    }
+    assertEquals(Arrays.asList(0, 16000, 32000), ticks);
+    assertEquals(2, validModel.getCommands("r").size());
+    assertEquals(before, sampleEveryTick(validModel));
+    assertEquals(Collections.singletonList("r 0-32000"), events);
+
+    validModel.undo();
+    assertEquals(32001, validModel.getKeyFrames("r").size());
+    assertEquals(32000, validModel.getCommands("r").size());
+    assertEquals(before, sampleEveryTick(validModel));
+    validModel.redo();
+    assertEquals(3, validModel.getKeyFrames("r").size());
+    assertEquals(Arrays.asList("r 0-32000", "r 0-32000", "r 0-32000"), events);
+    validModel.undo();
+    validModel.undo();
+    assertEquals(32000, validModel.getKeyFrames("r").size());
+  }
+
+  @Test
+  public void testSimplificationStaysWithinTolerance() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addKeyFrame("r", new KeyFrame(0, 0, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(10, 12, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(20, 20, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(30, 30, 0, 10, 10, 0, 0, 0));
+    assertEquals(0, validModel.simplifyKeyFrames(0, 0));
+    assertEquals(1, validModel.simplifyKeyFrames(1, 0));
+    assertEquals(10, validModel.getKeyFrames("r").get(1).getTick());
+    validModel.undo();
+    assertEquals(2, validModel.simplifyKeyFrames(2, 0));
+    assertEquals(2, validModel.getKeyFrames("r").size());
+    assertEquals(1, validModel.getCommands("r").size());
+    FrameBuffer frame = new FrameBuffer();
+    validModel.sampleInto(10, frame);
+    assertEquals(10, frame.getX(0));
+  }
+
+  @Test
+  public void testSimplificationOfLongTrackStaysWithinTolerance() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    // a slow drift with a bump halfway, over spans long enough to be checked without every tick
+    for (int tick = 0; tick <= 120000; tick += 1000) {
+      int x = tick / 7 + (tick == 60000 ? 3 : 0);
+      validModel.addKeyFrame("r", new KeyFrame(tick, x, 0, 10, 10, 0, 0, 0));
+    }
+    int[] before = new int[120001];
+    FrameBuffer frame = new FrameBuffer();
+    for (int tick = 0; tick <= 120000; tick++) {
+      validModel.sampleInto(tick, frame);
+      before[tick] = frame.getX(0);
+    }
+
+    int removed = validModel.simplifyKeyFrames(1, 0);
+    assertEquals(121 - removed, validModel.getKeyFrames("r").size());
+    List<Integer> ticks = new ArrayList<>();
+    for (IKeyFrame k : validModel.getKeyFrames("r")) {
+      ticks.add(k.getTick());
+    }
+    assertEquals(true, ticks.contains(60000));
+    int worst = 0;
+    for (int tick = 0; tick <= 120000; tick++) {
+      validModel.sampleInto(tick, frame);
+      worst = Math.max(worst, Math.abs(frame.getX(0) - before[tick]));
+    }
+    assertEquals(1, worst);
+
+    validModel.undo();
+    assertEquals(119, validModel.simplifyKeyFrames(3, 0));
+    assertEquals(1, validModel.getCommands("r").size());
+  }
+
+  @Test
+  public void testSimplificationNearTheLargestTick() {
+    int last = Integer.MAX_VALUE;
+    for (int simplify = 0; simplify < 2; simplify++) {
+      validModel = new AnimationModel();
+      validModel.setScreenSize(0, 0, 100, 100);
+      validModel.addShape("r", testRectangle);
+      // changes too large for the sums to be exact, so every tick up to the last one is checked
+      validModel.addKeyFrame("r", new KeyFrame(last - 4, 0, 0, 10, 10, 0, 0, 0));
+      validModel.addKeyFrame("r", new KeyFrame(last - 2, 1000000, 0, 10, 10, 0, 0, 0));
+      validModel.addKeyFrame("r", new KeyFrame(last, 2000000, 0, 10, 10, 0, 0, 0));
+      assertEquals(1, simplify == 0 ? validModel.compactKeyFrames()
+              : validModel.simplifyKeyFrames(0, 0));
+      assertEquals(2, validModel.getKeyFrames("r").size());
+      FrameBuffer frame = new FrameBuffer();
+      validModel.sampleInto(last - 1, frame);
+      assertEquals(1500000, frame.getX(0));
+      validModel.sampleInto(last, frame);
+      assertEquals(2000000, frame.getX(0));
+    }
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testSimplificationRejectsNegativeTolerance() {
+    validModel.simplifyKeyFrames(0, -1);
+  }
+
+  @Test
+  public void testShapesThatMoveAlikeShareSegments() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    validModel.addKeyFrame("r", new KeyFrame(0, 0, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(10, 10, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("o", new KeyFrame(5, 50, 50, 20, 20, 0, 0, 255));
+    validModel.addKeyFrame("o", new KeyFrame(15, 60, 50, 20, 20, 0, 0, 255));
+    MemoryReport report = validModel.getMemoryReport();
+    assertEquals(4, report.getKeyFrames());
+    assertEquals(2, report.getSegments());
+    assertEquals(1, report.getSharedSegments());
+
+    validModel.addKeyFrame("r", new KeyFrame(10, 20, 0, 10, 10, 0, 0, 0));
+    FrameBuffer frame = new FrameBuffer();
+    validModel.sampleInto(10, frame);
+    assertEquals(20, frame.getX(0));
+    assertEquals(55, frame.getX(1));
+    assertEquals(2, validModel.getMemoryReport().getSharedSegments());
+  }
+
+  @Test
+  public void testMemoryReportCountsBytes() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addShape("o", testOval);
+    // four segments that move alike and one that holds still, so two compiled segments
+    for (int i = 0; i < 5; i++) {
+      validModel.addKeyFrame("r", new KeyFrame(10 * i, 10 * i, 0, 10, 10, 0, 0, 0));
+    }
+    validModel.addKeyFrame("o", new KeyFrame(0, 50, 50, 20, 20, 0, 0, 255));
+    validModel.addKeyFrame("o", new KeyFrame(20, 50, 50, 20, 20, 0, 0, 255));
+    MemoryReport report = validModel.getMemoryReport();
+    assertEquals(7, report.getKeyFrames());
+    assertEquals(5, report.getSegments());
+    assertEquals(2, report.getSharedSegments());
+    assertEquals(0, report.getUnusedSegments());
+    assertEquals(5, report.getCommands());
+    // 2 entries of 8 ints and a table of 32 slots, 7 rows of 9 ints and 5 commands of 84 bytes
+    assertEquals(192 + 252 + 420, report.getBytes());
+    // without sharing, each of the 7 rows would hold 7 more ints in place of its index
+    assertEquals(4, report.getBytesSaved());
+  }
+
+  @Test
+  public void testUnusedSegmentsAreClearedOut() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    // every segment speeds up, so none of them share a compiled segment
+    for (int i = 0; i < 1500; i++) {
+      validModel.addKeyFrame("r", new KeyFrame(10 * i, i * (i + 1) / 2, 0, 10, 10, 0, 0, 0));
+    }
+    MemoryReport report = validModel.getMemoryReport();
+    assertEquals(1499, report.getSharedSegments());
+    assertEquals(0, report.getUnusedSegments());
+    assertEquals(1499, report.getCommands());
+    CompiledAnimation frozen = validModel.freeze();
+    validModel.removeShape("r");
+    report = validModel.getMemoryReport();
+    assertEquals(0, report.getSharedSegments());
+    assertEquals(1499, report.getUnusedSegments());
+    assertEquals(0, report.getCommands());
+
+    validModel.addShape("o", testOval);
+    for (int i = 0; i < 600; i++) {
+      validModel.addKeyFrame("o", new KeyFrame(10 * i, 0, i * (i + 1) / 2, 10, 10, 0, 0, 0));
+    }
+    report = validModel.getMemoryReport();
+    assertEquals(599, report.getSharedSegments());
+    assertEquals(0, report.getUnusedSegments());
+    FrameBuffer frame = new FrameBuffer();
+    frozen.sampleInto(5000, frame);
+    assertEquals(125250, frame.getX(0));
+
+    for (int i = 0; i < 602; i++) {
+      validModel.undo();
+    }
+    report = validModel.getMemoryReport();
+    assertEquals(1499, report.getSharedSegments());
+    assertEquals(599, report.getUnusedSegments());
+    validModel.sampleInto(5000, frame);
+    assertEquals(125250, frame.getX(0));
+    validModel.sampleInto(5005, frame);
+    assertEquals(125501, frame.getX(0));
+  }
+
+  @Test
+  public void testKeyFramesOfEachGroupLeaveOutTheOthers() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addKeyFrame("r", new KeyFrame(0, 0, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(10, 10, 0, 10, 10, 255, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(20, 20, 0, 10, 10, 255, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(30, 20, 0, 30, 10, 255, 0, 0));
+    List<Integer> ticks = new ArrayList<>();
+    KeyFrameConsumer tickOf = (tick, x, y, width, height, red, green, blue) -> ticks.add(tick);
+    validModel.forEachKeyFrame("r", IViewOnlyAnimationModel.POSITION, tickOf);
+    assertEquals(Arrays.asList(0, 20, 30), ticks);
+    ticks.clear();
+    validModel.freeze().forEachKeyFrame("r", IViewOnlyAnimationModel.SIZE, tickOf);
+    assertEquals(Arrays.asList(0, 20, 30), ticks);
+    ticks.clear();
+    validModel.forEachKeyFrame("r", IViewOnlyAnimationModel.COLOR, tickOf);
+    assertEquals(Arrays.asList(0, 10, 30), ticks);
+    ticks.clear();
+    validModel.forEachKeyFrame("r", IViewOnlyAnimationModel.POSITION
+            | IViewOnlyAnimationModel.COLOR, tickOf);
+    assertEquals(Arrays.asList(0, 10, 20, 30), ticks);
+  }
+
+  @Test
+  public void testKeyFramesOfEachGroupOfLongTrack() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    // a straight line that doubles its speed halfway, turning red at one tick in between
+    for (int tick = 0; tick <= 32000; tick++) {
+      int x = tick <= 16000 ? tick : 2 * tick - 16000;
+      int red = tick < 20000 ? 0 : 255;
+      validModel.addKeyFrame("r", new KeyFrame(tick, x, 0, 10, 10, red, 0, 0));
+    }
+    List<Integer> ticks = new ArrayList<>();
+    KeyFrameConsumer tickOf = (tick, x, y, width, height, red, green, blue) -> ticks.add(tick);
+    validModel.forEachKeyFrame("r", IViewOnlyAnimationModel.POSITION, tickOf);
+    assertEquals(Arrays.asList(0, 16000, 32000), ticks);
+    ticks.clear();
+    validModel.forEachKeyFrame("r", IViewOnlyAnimationModel.SIZE, tickOf);
+    assertEquals(Arrays.asList(0, 32000), ticks);
+    ticks.clear();
+    validModel.forEachKeyFrame("r", IViewOnlyAnimationModel.COLOR, tickOf);
+    assertEquals(Arrays.asList(0, 19999, 20000, 32000), ticks);
+    ticks.clear();
+    validModel.freeze().forEachKeyFrame("r", IViewOnlyAnimationModel.POSITION
+            | IViewOnlyAnimationModel.COLOR, tickOf);
+    assertEquals(Arrays.asList(0, 16000, 19999, 20000, 32000), ticks);
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testKeyFramesOfNoGroupAreRejected() {
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.forEachKeyFrame("r", 0, (tick, x, y, width, height, red, green, blue) -> { });
+  }
+
+  // describes the frame at every tick of a model, one string per tick
+  private static List<String> sampleEveryTick(IViewOnlyAnimationModel model) {
+    List<String> frames = new ArrayList<>();
+    FrameBuffer frame = new FrameBuffer();
+    for (int tick = 0; tick <= model.getFinalTick(); tick++) {
+      model.sampleInto(tick, frame);
+      StringBuilder description = new StringBuilder();
+      for (int i = 0; i < frame.size(); i++) {
+        description.append(frame.getId(i)).append(' ').append(frame.getX(i)).append(' ')
+                .append(frame.getY(i)).append(' ').append(frame.getWidth(i)).append(' ')
+                .append(frame.getHeight(i)).append(' ').append(frame.getColor(i)).append(';');
+      }
+      frames.add(description.toString());
+    }
+    return frames;
+  }
+
 }
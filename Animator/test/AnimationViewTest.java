@@ -1,14 +1,20 @@
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import animator.model.AnimationModel;
 import animator.model.IAnimationModel;
 import animator.model.ICommand;
+import animator.model.IModelListener;
 import animator.model.IShape;
+import animator.model.KeyFrame;
 import animator.model.MotionCommand;
 import animator.model.Oval;
 import animator.model.Rectangle;
 import animator.util.AnimatorViewFactory;
 import animator.view.IAnimationView;
+import animator.view.SVGView;
 
 import static org.junit.Assert.assertEquals;
 
@@ -243,6 +249,115 @@ public class AnimationViewTest {
             view.toString());
   }
 
+  @Test
+  public void testSvgViewRebuildsEditedShapes() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    validModel.addShape("o", testOval);
+    validModel.addCommand("o", moveRight);
+    AnimatorViewFactory factory = new AnimatorViewFactory();
+    IAnimationView view = factory.create("svg", validModel);
+    view.view(1);
+    String before = view.toString();
+
+    validModel.addKeyFrame("o", new KeyFrame(20, 50, 50, 10, 10, 0, 0, 0));
+    validModel.removeShape("r");
+    view.view(1);
+    IAnimationView fresh = factory.create("svg", validModel);
+    fresh.view(1);
+    assertEquals(fresh.toString(), view.toString());
+
+    validModel.undo();
+    validModel.undo();
+    view.view(1);
+    assertEquals(before, view.toString());
+    view.view(2);
+    fresh = factory.create("svg", validModel);
+    fresh.view(2);
+    assertEquals(fresh.toString(), view.toString());
+  }
+
+  @Test
+  public void testSvgViewOnlyListensWhileOpen() {
+    List<IModelListener> listeners = new ArrayList<>();
+    validModel = new AnimationModel() {
+      @Override
+      public void addListener(IModelListener listener) {
+        super.addListener(listener);
+        listeners.add(listener);
+      }
+
+      @Override
+      public void removeListener(IModelListener listener) {
+        super.removeListener(listener);
+        listeners.remove(listener);
+      }
+    };
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", doEverything);
+    SVGView view = new SVGView(validModel);
+    assertEquals(0, listeners.size());
+    view.view(1);
+    view.view(1);
+    assertEquals(1, listeners.size());
+
+    view.close();
+    assertEquals(0, listeners.size());
+    validModel.addKeyFrame("r", new KeyFrame(5, 50, 50, 10, 10, 0, 0, 0));
+    view.view(1);
+    IAnimationView fresh = new AnimatorViewFactory().create("svg", validModel);
+    fresh.view(1);
+    assertEquals(fresh.toString(), view.toString());
+    assertEquals(2, listeners.size());
+  }
+
+  @Test
+  public void testSvgViewAnimatesEachGroupOnItsOwnTrack() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addKeyFrame("r", new KeyFrame(1, 0, 0, 10, 10, 0, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(11, 10, 0, 10, 10, 255, 0, 0));
+    validModel.addKeyFrame("r", new KeyFrame(21, 20, 0, 10, 10, 255, 0, 0));
+    IAnimationView view = new AnimatorViewFactory().create("svg", validModel);
+    view.view(1);
+    assertEquals("<svg width=\"100\" height=\"100\" version=\"1.1\"\n"
+            + "    xmlns=\"http://www.w3.org/2000/svg\">\n"
+            + "<rect id=\"r\" x=\"0\" y=\"0\" width=\"10\" height=\"10\" fill=\"rgb(0,0,0)\" "
+            + "visibility=\"visible\" >\n"
+            + "    <animate attributeType=\"xml\" begin=\"1000ms\" dur=\"20000ms\" "
+            + "attributeName=\"x\" from=\"0\" to=\"20\" fill=\"freeze\" />\n"
+            + "    <animate attributeType=\"xml\" begin=\"1000ms\" dur=\"10000ms\" "
+            + "attributeName=\"fill\" from=\"rgb(0,0,0)\" to=\"rgb(255,0,0)\" fill=\"freeze\" />\n"
+            + "</rect>\n\n"
+            + "</svg>", view.toString());
+  }
+
+  @Test
+  public void testSvgViewStartsFromTheKeyFramesItAnimates() {
+    validModel = new AnimationModel();
+    validModel.setScreenSize(0, 0, 100, 100);
+    validModel.addShape("r", testRectangle);
+    validModel.addCommand("r", new MotionCommand(0, 0, 0, 10, 10, 0, 0, 0,
+            10, 20, 0, 10, 10, 0, 0, 0));
+    // the KeyFrames are kept when the only command is removed
+    validModel.removeLastCommand("r");
+    assertEquals(0, validModel.getCommands("r").size());
+    IAnimationView view = new AnimatorViewFactory().create("svg", validModel);
+    view.view(1);
+    assertEquals("<svg width=\"100\" height=\"100\" version=\"1.1\"\n"
+            + "    xmlns=\"http://www.w3.org/2000/svg\">\n"
+            + "<rect id=\"r\" x=\"0\" y=\"0\" width=\"10\" height=\"10\" fill=\"rgb(0,0,0)\" "
+            + "visibility=\"visible\" >\n"
+            + "    <animate attributeType=\"xml\" begin=\"0ms\" dur=\"10000ms\" "
+            + "attributeName=\"x\" from=\"0\" to=\"20\" fill=\"freeze\" />\n"
+            + "</rect>\n\n"
+            + "</svg>", view.toString());
+  }
+
   @Test
   public void testSvgViewEmpty() {
     validModel = new AnimationModel();
@@ -0,0 +1,186 @@
+package animator.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A class to represent the tests for the arithmetic that checks segments exactly. It sits in the
+ * package of the model, since that arithmetic is not part of its public interface.
+ */
+public class ExactnessTest {
+
+  // rounds change * elapsed / period half up, as a segment that rounds its true values does
+  private static long roundHalfUp(long elapsed, long period, long change) {
+    return Math.floorDiv(2 * change * elapsed + period, 2 * period);
+  }
+
+  // whether the original rule rounds the true value half up at every tick, checked tick by tick
+  private static boolean roundsEveryTick(int period, int change) {
+    for (int elapsed = 0; elapsed <= period; elapsed++) {
+      if (Interpolation.getPointAt(elapsed, period, 0, change)
+              != roundHalfUp(elapsed, period, change)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Test
+  public void testFloorSumMatchesTermByTerm() {
+    for (int n = 0; n < 12; n++) {
+      for (int m = 1; m < 10; m++) {
+        for (int a = -25; a <= 25; a++) {
+          for (int b = -25; b <= 25; b += 3) {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+              sum += Math.floorDiv((long) a * i + b, m);
+            }
+            assertEquals(sum, Exactness.floorSum(n, m, a, b));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFloorSumOfNoTermsIsZero() {
+    assertEquals(0, Exactness.floorSum(0, 7, -100, -100));
+    assertEquals(0, Exactness.floorSum(0, 1, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2));
+    assertEquals(0, Exactness.sumOfPointsAt(5, 0, 10, -3));
+  }
+
+  @Test
+  public void testFloorSumOfManyTermsWithLargeValues() {
+    int n = 1 << 17;
+    long m = 2L * Exactness.SUM_LIMIT;
+    long a = -2L * Exactness.CHANGE_LIMIT;
+    long b = 2L * Exactness.CHANGE_LIMIT * Integer.MAX_VALUE + 12345;
+    long sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += Math.floorDiv(a * i + b, m);
+    }
+    assertEquals(sum, Exactness.floorSum(n, m, a, b));
+  }
+
+  @Test
+  public void testSumOfPointsAtMatchesTickByTick() {
+    for (int period = 1; period < 40; period++) {
+      for (int change = -60; change <= 60; change += 7) {
+        for (int elapsed = 0; elapsed <= period; elapsed += 3) {
+          long sum = 0;
+          for (int count = 0; elapsed + count <= period + 1; count++) {
+            assertEquals(sum, Exactness.sumOfPointsAt(elapsed, count, period, change));
+            sum += roundHalfUp(elapsed + count, period, change);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSumOfPointsAtNearTheLargestTick() {
+    // the numerators pass the largest int long before the sum does
+    int elapsed = Integer.MAX_VALUE - 1000;
+    for (int change = -Exactness.CHANGE_LIMIT; change <= Exactness.CHANGE_LIMIT;
+         change += Exactness.CHANGE_LIMIT / 2) {
+      long sum = 0;
+      for (int i = 0; i <= 1000; i++) {
+        sum += roundHalfUp((long) elapsed + i, Exactness.SUM_LIMIT, change);
+      }
+      assertEquals(sum, Exactness.sumOfPointsAt(elapsed, 1001, Exactness.SUM_LIMIT, change));
+    }
+  }
+
+  @Test
+  public void testIsRoundedMatchesTickByTick() {
+    for (int period = 1; period <= 150; period++) {
+      for (int change = -200; change <= 200; change++) {
+        assertEquals(roundsEveryTick(period, change), Exactness.isRounded(period, change));
+      }
+    }
+  }
+
+  @Test
+  public void testIsRoundedEdgeCases() {
+    // a segment that holds still gives its value exactly
+    assertEquals(true, Exactness.isRounded(1, 0));
+    assertEquals(true, Exactness.isRounded(Integer.MAX_VALUE, 0));
+    // the change cannot be negated
+    assertEquals(false, Exactness.isRounded(1, Integer.MIN_VALUE));
+    // too large for the bound on float rounding, even where the rule happens to be exact
+    assertEquals(false, Exactness.isRounded(Integer.MAX_VALUE, 1));
+    assertEquals(false, Exactness.isRounded(Integer.MAX_VALUE, -1));
+    assertEquals(false, Exactness.isRounded(1, Integer.MAX_VALUE));
+    assertEquals(false, Exactness.isRounded(1 << 30, 3));
+    // the longest segments that pass still round every tick half up
+    assertEquals(true, Exactness.isRounded(1 << 21, 1));
+    assertEquals(true, roundsEveryTick(1 << 21, 1));
+    assertEquals(true, Exactness.isRounded(1 << 21, -1));
+    assertEquals(true, roundsEveryTick(1 << 21, -1));
+    assertEquals(true, Exactness.isRounded(3 << 19, 3));
+    assertEquals(true, roundsEveryTick(3 << 19, 3));
+  }
+
+  @Test
+  public void testZeroLengthSegmentsAreNotCompared() {
+    assertEquals(false, Exactness.canCompare(10, 5, 0, 0, 0, 0));
+    assertEquals(true, Exactness.canCompare(10, 5, 0, 10, 5, 0));
+    assertEquals(false, Exactness.canCompare(Exactness.SUM_LIMIT + 1, 5, 0, 10, 5, 0));
+    assertEquals(false, Exactness.canCompare(10, -Exactness.CHANGE_LIMIT - 1, 0, 10, 5, 0));
+  }
+
+  @Test
+  public void testStaysWithinMatchesTickByTick() {
+    for (int period = 1; period <= 12; period++) {
+      for (int segmentPeriod = 1; segmentPeriod <= period; segmentPeriod += 2) {
+        for (int lead = 0; lead + segmentPeriod <= period; lead += 2) {
+          for (int change = -9; change <= 9; change += 2) {
+            for (int segmentChange = -7; segmentChange <= 7; segmentChange += 3) {
+              for (int offset = -3; offset <= 3; offset++) {
+                for (int tolerance = 0; tolerance <= 2; tolerance++) {
+                  boolean within = true;
+                  for (int t = 0; t <= segmentPeriod; t++) {
+                    long difference = offset + roundHalfUp(lead + t, period, change)
+                            - roundHalfUp(t, segmentPeriod, segmentChange);
+                    within = within && Math.abs(difference) <= tolerance;
+                  }
+                  assertEquals(within, Exactness.staysWithin(period, change, offset, lead,
+                          segmentPeriod, segmentChange, segmentPeriod, tolerance));
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSlopeBoundsKeepTheSlopesThatRoundToEveryValue() {
+    Exactness.SlopeBounds bounds = new Exactness.SlopeBounds(2);
+    assertEquals(true, bounds.allows(0, -5, 1));
+    assertEquals(true, bounds.allows(1, 5, 1));
+    // a value of 1 two ticks in allows the slopes from 1 / 4 up to but not including 3 / 4
+    bounds.narrow(0, 1, 2);
+    assertEquals(true, bounds.allows(0, 1, 4));
+    assertEquals(true, bounds.allows(0, 1, 2));
+    assertEquals(false, bounds.allows(0, 3, 4));
+    assertEquals(false, bounds.allows(0, 0, 1));
+    // a value of -1 three ticks in allows the slopes from -1 / 2 up to but not including -1 / 6
+    bounds.narrow(1, -1, 3);
+    assertEquals(true, bounds.allows(1, -1, 3));
+    assertEquals(false, bounds.allows(1, -1, 6));
+    assertEquals(true, bounds.allows(1, -1, 2));
+    assertEquals(false, bounds.allows(1, -3, 5));
+    // the attributes are bounded on their own
+    assertEquals(false, bounds.allows(0, -1, 3));
+    bounds.clear();
+    assertEquals(true, bounds.allows(0, 3, 4));
+    // bounds near the limit stay exact
+    long limit = Exactness.SlopeBounds.LIMIT;
+    bounds.narrow(0, limit, limit);
+    assertEquals(true, bounds.allows(0, limit, limit));
+    assertEquals(false, bounds.allows(0, limit - 1, limit));
+  }
+}